@@ -0,0 +1,125 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.bag.Book;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.ordered.Loan;
+import v.yeikovych.ordered.Reservation;
+import v.yeikovych.subset.Event;
+import v.yeikovych.util.PersistenceMode;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.NavigableSet;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmas.extents.dir=target/extents")
+@State(Scope.Benchmark)
+public class AssociationBenchmark {
+
+    private static final int MAX_VIP_LOANS = 15;
+    private static final LocalDate TODAY = LocalDate.of(2024, 1, 1);
+
+    @Param({"IMMEDIATE", "WRITE_BEHIND", "JOURNAL"})
+    public PersistenceMode mode;
+
+    @Param({"10", "1000"})
+    public int waitlistSize;
+
+    @Param({"1000"})
+    public int eventMembers;
+
+    private Member borrower;
+    private Member reader;
+    private Book book;
+    private Book popularBook;
+    private Event event;
+    private Event meetup;
+    private Event followUp;
+    private Member[] attendees;
+    private int nextAttendee;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Fixtures.reset();
+        Fixtures.usePersistenceMode(PersistenceMode.WRITE_BEHIND);
+
+        borrower = Fixtures.newMember();
+        reader = Fixtures.newMember();
+        book = Fixtures.newBook();
+        for (int i = 0; i < MAX_VIP_LOANS - 1; i++) {
+            new Loan(reader, book, TODAY, TODAY.plusDays(MAX_VIP_LOANS - i));
+        }
+
+        popularBook = Fixtures.newBook();
+        for (int i = 0; i < waitlistSize; i++) {
+            new Reservation(Fixtures.newMember(), popularBook, TODAY.plusDays(i % 30), TODAY.plusDays(60));
+        }
+
+        event = new Event("Bench meetup", LocalDateTime.of(2024, 1, 1, 18, 0),
+                LocalDateTime.of(2024, 1, 1, 20, 0), "Main hall", Integer.MAX_VALUE);
+        attendees = new Member[eventMembers];
+        for (int i = 0; i < eventMembers; i++) {
+            attendees[i] = Fixtures.newMember();
+        }
+        nextAttendee = 0;
+
+        meetup = new Event("Bench meetup", LocalDateTime.of(2024, 1, 2, 18, 0),
+                LocalDateTime.of(2024, 1, 2, 20, 0), "Main hall", Integer.MAX_VALUE);
+        followUp = new Event("Bench follow-up", LocalDateTime.of(2024, 1, 3, 18, 0),
+                LocalDateTime.of(2024, 1, 3, 20, 0), "Main hall", Integer.MAX_VALUE);
+        for (int i = 0; i < eventMembers; i++) {
+            Event target = i % 2 == 0 ? meetup : followUp;
+            attendees[i].registerForEvent(target);
+            attendees[i].addAttendedEvent(target);
+            if (i % 3 == 0) {
+                Event other = target == meetup ? followUp : meetup;
+                attendees[i].registerForEvent(other);
+                attendees[i].addAttendedEvent(other);
+            }
+        }
+
+        Fixtures.usePersistenceMode(mode);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        Fixtures.reset();
+    }
+
+    @Benchmark
+    public Loan linkAndUnlinkLoan() {
+        Loan loan = new Loan(borrower, book, TODAY, TODAY.plusDays(14));
+        borrower.removeLoan(loan);
+        book.removeLoanFromHistory(loan);
+        return loan;
+    }
+
+    @Benchmark
+    public Reservation reserve() {
+        return new Reservation(reader, popularBook, TODAY.plusDays(15), TODAY.plusDays(45));
+    }
+
+    @Benchmark
+    public NavigableSet<Loan> sortedLoans() {
+        return reader.getLoans();
+    }
+
+    @Benchmark
+    public int attendedBoth() {
+        return Event.attendedAll(meetup, followUp).size();
+    }
+
+    @Benchmark
+    public Event registerAndUnregisterMember() {
+        Member member = attendees[nextAttendee];
+        nextAttendee = (nextAttendee + 1) % attendees.length;
+        event.registerMember(member);
+        event.unregisterMember(member);
+        return event;
+    }
+}
@@ -0,0 +1,99 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.bag.BookCategory;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.subset.Event;
+import v.yeikovych.util.ValidationException;
+import v.yeikovych.xor.ReadingGroup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// every thread joins and leaves the same event or group, an iteration fails if more members ever held a seat than exist
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmas.storage.engine=memory")
+@Threads(Threads.MAX)
+@State(Scope.Benchmark)
+public class CapacityBenchmark {
+
+    // fewer seats than threads keeps the last slot contended
+    @Param({"2", "1000"})
+    public int seats;
+
+    private Event event;
+    private ReadingGroup group;
+    private final AtomicInteger eventOccupants = new AtomicInteger();
+    private final AtomicInteger groupOccupants = new AtomicInteger();
+    private final AtomicInteger overbooked = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Caller {
+        private Member member;
+
+        @Setup(Level.Iteration)
+        public void setUp(CapacityBenchmark benchmark) {
+            member = Fixtures.newMember();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Fixtures.reset();
+        event = new Event("Bench launch", LocalDateTime.of(2024, 1, 1, 18, 0),
+                LocalDateTime.of(2024, 1, 1, 20, 0), "Main hall", seats);
+        group = new ReadingGroup("Bench readers", BookCategory.FICTION, seats);
+        eventOccupants.set(0);
+        groupOccupants.set(0);
+        overbooked.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void verify() {
+        int violations = overbooked.get();
+        int leftInEvent = event.getRegisteredMembers().size();
+        int leftInGroup = group.getParticipants().size();
+        Fixtures.reset();
+        if (violations > 0 || leftInEvent > 0 || leftInGroup > 0) {
+            throw new IllegalStateException("Capacity exceeded " + violations + " times, "
+                    + leftInEvent + " members left in the event and " + leftInGroup + " in the group");
+        }
+    }
+
+    @Benchmark
+    public boolean joinAndLeaveEvent(Caller caller) {
+        try {
+            event.registerMember(caller.member);
+        } catch (ValidationException e) {
+            return false;
+        }
+        holdSeat(eventOccupants);
+        event.unregisterMember(caller.member);
+        return true;
+    }
+
+    @Benchmark
+    public boolean joinAndLeaveGroup(Caller caller) {
+        try {
+            group.addParticipant(caller.member);
+        } catch (ValidationException e) {
+            return false;
+        }
+        holdSeat(groupOccupants);
+        group.removeParticipant(caller.member);
+        return true;
+    }
+
+    private void holdSeat(AtomicInteger occupants) {
+        if (occupants.incrementAndGet() > seats) {
+            overbooked.incrementAndGet();
+        }
+        // lets other callers try to join while this seat is held
+        Thread.yield();
+        occupants.decrementAndGet();
+    }
+}
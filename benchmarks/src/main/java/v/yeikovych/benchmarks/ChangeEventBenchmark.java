@@ -0,0 +1,71 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.bag.Book;
+import v.yeikovych.util.ChangeEvent;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.ChangeSubscription;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// what a subscriber costs the thread making the change, nothing is persisted
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Dmas.storage.engine=memory")
+@State(Scope.Benchmark)
+public class ChangeEventBenchmark {
+
+    @Param({"none", "sync", "async"})
+    public String subscriber;
+
+    private final LongAdder received = new LongAdder();
+    private ChangeSubscription subscription;
+    private Book book;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.reset();
+        book = Fixtures.newBook();
+        subscription = switch (subscriber) {
+            // both consumers take their time, the ring drops what the async one cannot keep up with
+            case "sync" -> ChangeEvents.subscribe(this::consume);
+            case "async" -> ChangeEvents.subscribeAsync(this::consume, 1 << 16);
+            default -> null;
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (subscription != null) {
+            subscription.close();
+        }
+        Fixtures.reset();
+    }
+
+    @Benchmark
+    public void rateBook() {
+        book.setRating(1 + ThreadLocalRandom.current().nextInt(5));
+    }
+
+    private void consume(ChangeEvent event) {
+        slowly();
+        received.increment();
+    }
+
+    private void consume(List<ChangeEvent> events) {
+        slowly();
+        received.add(events.size());
+    }
+
+    private static void slowly() {
+        long until = System.nanoTime() + 2_000;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+    }
+}
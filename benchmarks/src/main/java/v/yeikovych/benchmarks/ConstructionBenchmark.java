@@ -0,0 +1,45 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.bag.Book;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.PersistenceMode;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dmas.extents.dir=target/extents")
+@State(Scope.Benchmark)
+public class ConstructionBenchmark {
+
+    @Param({"IMMEDIATE", "WRITE_BEHIND", "JOURNAL"})
+    public PersistenceMode mode;
+
+    @Param({"1000"})
+    public int extentSize;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Fixtures.reset();
+        Fixtures.populate(extentSize, extentSize);
+        Fixtures.usePersistenceMode(mode);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        Fixtures.reset();
+    }
+
+    @Benchmark
+    public Book constructBook() {
+        return Fixtures.newBook();
+    }
+
+    @Benchmark
+    public Member constructMember() {
+        return Fixtures.newMember();
+    }
+}
@@ -0,0 +1,81 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.bag.Book;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.ordered.Loan;
+import v.yeikovych.util.PersistenceMode;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.Transaction;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// durable writes from many threads at once, with sync they share snapshot writes and journal forces
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Dmas.extents.dir=target/extents", "-Dmas.storage.engine=mapped"})
+@Threads(8)
+@State(Scope.Benchmark)
+public class DurabilityBenchmark {
+
+    private static final LocalDate TODAY = LocalDate.of(2024, 1, 1);
+
+    @Param({"none", "async", "sync"})
+    public String durability;
+
+    private List<Book> books;
+
+    @State(Scope.Thread)
+    public static class Borrower {
+        Member member;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            member = Fixtures.newMember();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Fixtures.reset();
+        SerializationUtil.useDurability(durability);
+        books = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            books.add(Fixtures.newBook());
+        }
+        Fixtures.usePersistenceMode(PersistenceMode.JOURNAL);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.reset();
+    }
+
+    // each checkout is one transaction and its commit is one journal record, so with sync the threads share the
+    // forces; the shards are only rewritten when the journal is compacted
+    @Benchmark
+    public Loan checkoutAndReturn(Borrower borrower) {
+        Book book = books.get(ThreadLocalRandom.current().nextInt(books.size()));
+        try (Transaction transaction = Transaction.begin()) {
+            Loan loan = new Loan(borrower.member, book, TODAY, TODAY.plusDays(14));
+            loan.returnBook(TODAY.plusDays(7));
+            // returning leaves the borrowed count alone, freeing it keeps the member under the VIP limit
+            borrower.member.decrementBorrowedItems();
+            transaction.commit();
+            return loan;
+        }
+    }
+
+    // a field update is one journal record, so all a durable one waits for is the force
+    @Benchmark
+    public void rateBook() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        books.get(random.nextInt(books.size())).setRating(1 + random.nextInt(5));
+    }
+}
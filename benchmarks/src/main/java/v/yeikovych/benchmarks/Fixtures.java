@@ -0,0 +1,69 @@
+package v.yeikovych.benchmarks;
+
+import v.yeikovych.bag.Book;
+import v.yeikovych.bag.BookCategory;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.dynamic.MembershipStatus;
+import v.yeikovych.util.PersistenceMode;
+import v.yeikovych.util.SerializationUtil;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class Fixtures {
+
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final BookCategory[] categories = BookCategory.values();
+
+    private Fixtures() {
+    }
+
+    static Book newBook() {
+        long n = sequence.incrementAndGet();
+        return new Book(isbn(n), "Title " + n, "Author " + (n % 997), 1900 + (int) (n % 120),
+                categories[(int) (n % categories.length)], 100 + (int) (n % 900));
+    }
+
+    static Member newMember() {
+        long n = sequence.incrementAndGet();
+        return new Member("Reader", "Number" + n, LocalDate.of(1990, 1, 1),
+                "member" + n + "@bench.example.com", "1234567890", MembershipStatus.VIP);
+    }
+
+    static String isbn(long n) {
+        String body = "978" + String.format("%09d", n % 1_000_000_000L);
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            sum += (body.charAt(i) - '0') * ((i & 1) == 0 ? 1 : 3);
+        }
+        return body + (10 - sum % 10) % 10;
+    }
+
+    static void reset() {
+        SerializationUtil.close();
+        SerializationUtil.clearExtents();
+    }
+
+    static void populate(int books, int members) {
+        // defer every write while filling, close() then persists the result once
+        SerializationUtil.enableWriteBehind(Duration.ofDays(1), Integer.MAX_VALUE);
+        for (int i = 0; i < books; i++) {
+            newBook();
+        }
+        for (int i = 0; i < members; i++) {
+            newMember();
+        }
+        SerializationUtil.close();
+    }
+
+    static void usePersistenceMode(PersistenceMode mode) {
+        SerializationUtil.close();
+        switch (mode) {
+            case WRITE_BEHIND -> SerializationUtil.enableWriteBehind(Duration.ofMillis(100), 10_000);
+            case JOURNAL -> SerializationUtil.enableJournal(10_000);
+            default -> {
+            }
+        }
+    }
+}
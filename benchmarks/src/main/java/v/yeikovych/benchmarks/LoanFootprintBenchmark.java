@@ -0,0 +1,122 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.bag.Book;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.ordered.Loan;
+import v.yeikovych.ordered.LoanArchive;
+import v.yeikovych.util.SerializationUtil;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// heap retained per returned loan while loans stay linked into the graph, once their book compacted them
+// and once they moved out to the loan archive
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+// a serial heap has no region filler, so used heap after a full collection is close to what is live
+@Fork(value = 1, jvmArgsAppend = {"-Dmas.storage.engine=memory", "-Dmas.extents.dir=target/extents", "-Xmx6g",
+        "-XX:+UseSerialGC"})
+@State(Scope.Benchmark)
+public class LoanFootprintBenchmark {
+
+    private static final LocalDate FIRST_LOAN = LocalDate.of(2020, 1, 1);
+    private static final int MAX_VIP_LOANS = 15;
+    private static final int LOANS_PER_BOOK = 100;
+
+    @Param({"100000", "1000000"})
+    public int loans;
+
+    @Param({"live", "compacted", "archived"})
+    public String tier;
+
+    private List<Book> books;
+    private long bytesPerLoan;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long retainedBytesPerLoan;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Fixtures.reset();
+        deleteArchive();
+        books = new ArrayList<>();
+        for (int i = 0; i < Math.max(loans / LOANS_PER_BOOK, 1); i++) {
+            books.add(Fixtures.newBook());
+        }
+        // live loans keep counting against their member's limit, so every member borrows at most that many
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < loans / MAX_VIP_LOANS + 1; i++) {
+            members.add(Fixtures.newMember());
+        }
+
+        long before = usedHeap();
+        for (int i = 0; i < loans; i++) {
+            LocalDate loanDate = FIRST_LOAN.plusDays(i % 1000);
+            Loan loan = new Loan(members.get(i / MAX_VIP_LOANS), books.get(i % books.size()),
+                    loanDate, loanDate.plusDays(14));
+            loan.returnBook(loanDate.plusDays(i % 21));
+        }
+        switch (tier) {
+            case "compacted" -> Book.compactLoanHistories(LocalDate.MAX);
+            case "archived" -> {
+                LoanArchive.setRetention(Period.ZERO);
+                Book.archiveLoanHistories(LocalDate.MAX);
+            }
+            default -> {
+            }
+        }
+        bytesPerLoan = (usedHeap() - before) / loans;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Fixtures.reset();
+        deleteArchive();
+    }
+
+    // compacted and archived histories are read back as views, so this also shows what a full history scan costs
+    @Benchmark
+    public double sumLateFees(Footprint footprint) {
+        footprint.retainedBytesPerLoan = bytesPerLoan;
+        double fees = 0;
+        for (Book book : books) {
+            for (Loan loan : book.getLoanHistory()) {
+                fees += loan.getLateFee();
+            }
+        }
+        return fees;
+    }
+
+    // book ids start over in every fork, so segments left behind would leak into the next trial's histories
+    private static void deleteArchive() throws IOException {
+        Path archive = SerializationUtil.getDirectory().resolve("loan-archive");
+        if (Files.isDirectory(archive)) {
+            try (Stream<Path> segments = Files.list(archive)) {
+                for (Path segment : segments.toList()) {
+                    Files.delete(segment);
+                }
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
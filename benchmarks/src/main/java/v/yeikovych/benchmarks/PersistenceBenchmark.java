@@ -0,0 +1,52 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.staticc.Person;
+import v.yeikovych.util.SerializationUtil;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Dmas.extents.dir=target/extents", "-Xmx6g"})
+@State(Scope.Benchmark)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int extentSize;
+
+    @Param({"java", "binary"})
+    public String codec;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SerializationUtil.useCodec(codec);
+        // java snapshots go to a single file, binary ones to shards as they always did
+        SerializationUtil.useStorageEngine(codec.equals("binary") ? "mapped" : "file");
+        Fixtures.reset();
+        Fixtures.populate(extentSize, extentSize / 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Fixtures.reset();
+    }
+
+    @Benchmark
+    public void writeExtent() {
+        SerializationUtil.writeExtent();
+    }
+
+    // with the binary codec only the Person shard is rewritten
+    @Benchmark
+    public void writePersonExtent() {
+        SerializationUtil.writeExtent(Person.class);
+    }
+
+    @Benchmark
+    public void readExtent() {
+        SerializationUtil.readExtent();
+    }
+}
@@ -0,0 +1,89 @@
+package v.yeikovych.benchmarks;
+
+import v.yeikovych.bag.BookCategory;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.ValidationException;
+import v.yeikovych.xor.ReadingGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// members join, leave and switch between two small groups from many threads while the seats are counted on the
+// side, run with -ea: java -ea -cp target/benchmarks.jar v.yeikovych.benchmarks.ReadingGroupCapacityCheck
+public class ReadingGroupCapacityCheck {
+
+    private static final int SEATS = 3;
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        boolean assertions = false;
+        assert assertions = true;
+        if (!assertions) {
+            throw new IllegalStateException("Run with -ea, the checks below are assertions");
+        }
+
+        System.setProperty("mas.storage.engine", "memory");
+        Fixtures.reset();
+        ReadingGroup[] groups = {
+                new ReadingGroup("Early readers", BookCategory.FICTION, SEATS),
+                new ReadingGroup("Late readers", BookCategory.FICTION, SEATS)
+        };
+        AtomicInteger[] occupants = {new AtomicInteger(), new AtomicInteger()};
+        AtomicInteger joins = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> callers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Member member = Fixtures.newMember();
+            callers.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int round = 0; round < ROUNDS; round++) {
+                    int g = random.nextInt(groups.length);
+                    try {
+                        groups[g].addParticipant(member);
+                    } catch (ValidationException e) {
+                        continue;
+                    }
+                    joins.incrementAndGet();
+                    assert occupants[g].incrementAndGet() <= SEATS : groups[g].getGroupName() + " went over capacity";
+                    assert groups[g].getParticipants().size() <= SEATS : groups[g].getGroupName() + " holds too many";
+                    Thread.yield();
+                    occupants[g].decrementAndGet();
+                    if (random.nextBoolean()) {
+                        groups[g].removeParticipant(member);
+                    } else {
+                        // switching leaves the old group first, the seat there is free before the new one is tried
+                        int other = 1 - g;
+                        try {
+                            member.setReadingGroup(groups[other]);
+                        } catch (ValidationException e) {
+                            // the other group was full, the member stays where it was
+                        }
+                        member.setReadingGroup(null);
+                    }
+                    assert member.getReadingGroup() == null : "Member still in a group after leaving";
+                }
+            }));
+        }
+        for (Future<?> caller : callers) {
+            caller.get();
+        }
+        pool.shutdown();
+
+        for (ReadingGroup group : groups) {
+            assert group.getParticipants().isEmpty() : group.getGroupName() + " kept " + group.getParticipants().size();
+            // a leaked seat shows up as a group that can no longer be filled
+            for (int i = 0; i < SEATS; i++) {
+                group.addParticipant(Fixtures.newMember());
+            }
+        }
+        System.out.println("No group went over " + SEATS + " seats in " + joins.get() + " joins");
+        Fixtures.reset();
+    }
+}
@@ -0,0 +1,47 @@
+package v.yeikovych.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import v.yeikovych.util.ValidationUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    // the regex path ValidationUtils used before the hand-written scanners
+    private static final String EMAIL_REGEX = "^[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,}$";
+    private static final String ISBN_REGEX = "^(?:ISBN(?:-1[03])?:? )?(?=[0-9X]{10}$|(?=(?:\\d+[- ]){3})[- 0-9X]{13}$|97[89]\\d{10}$|" +
+            "(?=(?:\\d+[- ]){4})[- 0-9]{17}$)(?:97[89][- ]?)?\\d{1,5}[- ]?\\d+[- ]?\\d+[- ]?[0-9X]$";
+
+    @Param({"ann.lee+library@mail.example.com"})
+    public String email;
+
+    @Param({"978-0-306-40615-7", "0306406152"})
+    public String isbn;
+
+    @Benchmark
+    public boolean emailRegex() {
+        return Pattern.compile(EMAIL_REGEX).matcher(email).matches();
+    }
+
+    @Benchmark
+    public boolean emailScanner() {
+        return ValidationUtils.isValidEmail(email);
+    }
+
+    @Benchmark
+    public boolean isbnRegex() {
+        return isbn.matches(ISBN_REGEX);
+    }
+
+    @Benchmark
+    public boolean isbnScanner() {
+        return ValidationUtils.isValidIsbn(isbn);
+    }
+}
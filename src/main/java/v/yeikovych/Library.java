@@ -0,0 +1,13 @@
+package v.yeikovych;
+
+import v.yeikovych.util.Transaction;
+
+public final class Library {
+
+    private Library() {
+    }
+
+    public static Transaction begin() {
+        return Transaction.begin();
+    }
+}
@@ -1,16 +1,33 @@
 package v.yeikovych.bag;
 
 import v.yeikovych.ordered.Loan;
+import v.yeikovych.ordered.LoanArchive;
+import v.yeikovych.ordered.LoanStore;
 import v.yeikovych.ordered.Reservation;
+import v.yeikovych.ordered.ReservationQueue;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.EntityIds;
 import v.yeikovych.util.Extent;
+import v.yeikovych.util.ExtentIndex;
+import v.yeikovych.util.HashIndex;
+import v.yeikovych.util.Restorable;
 import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.SortedIndex;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
+import v.yeikovych.util.UniqueIndex;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
-public class Book implements Extent {
+public class Book implements Extent, Restorable {
+    // unique
+    private final long id = EntityIds.next();
     // unique
     private String isbn;
     private String title;
@@ -23,12 +40,37 @@ public class Book implements Extent {
     private double rating;
 
     // history
-    private List<Loan> loanHistory = new ArrayList<>();
-    private List<Reservation> reservations = new ArrayList<>();
+    private List<Loan> loanHistory = new CopyOnWriteArrayList<>();
+    // returned loans moved out of the object graph, the oldest of them further out to the loan archive
+    private LoanStore compactedLoans = new LoanStore();
+    private ReservationQueue reservations = new ReservationQueue();
+
+    private static List<Book> extent = Collections.synchronizedList(new ArrayList<>());
+    private static final UniqueIndex<String, Book> isbnIndex =
+            new UniqueIndex<>(Book::getIsbn, "ISBN already exists: ");
+    // secondary
+    private static final HashIndex<String, Book> authorIndex = new HashIndex<>(Book::getAuthor);
+    private static final HashIndex<BookCategory, Book> categoryIndex =
+            HashIndex.forEnum(BookCategory.class, Book::getCategory);
+    private static final SortedIndex<Integer, Book> yearIndex = new SortedIndex<>(Book::getPublicationYear);
+    private static final SortedIndex<Double, Book> ratingIndex = new SortedIndex<>(Book::getRating);
+    private static final ExtentIndex<Book> idIndex = EntityIds.indexFor(Book.class);
+
+    static {
+        SerializationUtil.registerExtent(extent, Book.class);
+        SerializationUtil.registerIndex(Book.class, isbnIndex);
+        SerializationUtil.registerIndex(Book.class, authorIndex);
+        SerializationUtil.registerIndex(Book.class, categoryIndex);
+        SerializationUtil.registerIndex(Book.class, yearIndex);
+        SerializationUtil.registerIndex(Book.class, ratingIndex);
+        SerializationUtil.registerIndex(Book.class, idIndex);
+    }
 
-    private static List<Book> extent = new ArrayList<>();
+    // binary snapshots restore fields directly
+    private Book() {
+    }
 
-    public Book(String title, String author, int publicationYear,
+    public Book(String isbn, String title, String author, int publicationYear,
                 BookCategory category, int pageCount) {
         setIsbn(isbn);
         setTitle(title);
@@ -37,8 +79,15 @@ public class Book implements Extent {
         setCategory(category);
         setPageCount(pageCount);
         this.rating = 0.0;
-        SerializationUtil.registerExtent(extent, Book.class);
-        SerializationUtil.writeExtent();
+        isbnIndex.insert(this);
+        authorIndex.insert(this);
+        categoryIndex.insert(this);
+        yearIndex.insert(this);
+        ratingIndex.insert(this);
+        idIndex.insert(this);
+        extent.add(this);
+        Transaction.onRollback(this, this::removeFromExtent);
+        SerializationUtil.writeExtent(Book.class);
     }
 
     public void setIsbn(String isbn) {
@@ -46,52 +95,74 @@ public class Book implements Extent {
 
         throwIfFalse(() -> isValidIsbn(isbn), "Invalid ISBN format");
 
-        for (Book book : extent) {
-            if (book != this && isbn.equals(book.getIsbn())) {
-                throw new IllegalArgumentException("ISBN already exists: " + isbn);
-            }
-        }
-
-        this.isbn = isbn;
-        SerializationUtil.writeExtent();
+        // the index moves the entry from the old key to the new one, so the field must not change in between
+        StripedLocks.run(() -> {
+            isbnIndex.update(this.isbn, isbn, this);
+            String previous = this.isbn;
+            this.isbn = isbn;
+            SerializationUtil.recordChange(this, "isbn", previous, isbn);
+        }, this);
     }
 
     public void setPublicationYear(int publicationYear) {
         int currentYear = LocalDate.now().getYear();
         throwIfFalse(() -> publicationYear >= 1500 && publicationYear <= currentYear,
                 "Publication year must be between 1500 and " + currentYear);
-        this.publicationYear = publicationYear;
-        SerializationUtil.writeExtent();
+        StripedLocks.run(() -> {
+            yearIndex.update(this.publicationYear, publicationYear, this);
+            int previous = this.publicationYear;
+            this.publicationYear = publicationYear;
+            SerializationUtil.recordChange(this, "publicationYear", previous, publicationYear);
+        }, this);
     }
 
     public void setRating(double rating) {
         throwIfFalse(() -> rating > 0 && rating <= 5, "Rating must be between 0 and 5");
-        this.rating = rating;
-        SerializationUtil.writeExtent();
+        StripedLocks.run(() -> {
+            ratingIndex.update(this.rating, rating, this);
+            double previous = this.rating;
+            this.rating = rating;
+            SerializationUtil.recordChange(this, "rating", previous, rating);
+        }, this);
     }
 
     public void setTitle(String title) {
         throwIfFalse(() -> isValidName(title), "Title must not be null or empty");
+        String previous = this.title;
         this.title = title;
-        SerializationUtil.writeExtent();
+        SerializationUtil.recordChange(this, "title", previous, title);
     }
 
     public void setAuthor(String author) {
         throwIfFalse(() -> isValidName(author), "Author name must not be null or empty");
-        this.author = author;
-        SerializationUtil.writeExtent();
+        StripedLocks.run(() -> {
+            authorIndex.update(this.author, author, this);
+            String previous = this.author;
+            this.author = author;
+            SerializationUtil.recordChange(this, "author", previous, author);
+        }, this);
     }
 
     public void setCategory(BookCategory category) {
         throwIfNull(category, "Category cannot be null");
-        this.category = category;
-        SerializationUtil.writeExtent();
+        StripedLocks.run(() -> {
+            categoryIndex.update(this.category, category, this);
+            BookCategory previous = this.category;
+            this.category = category;
+            SerializationUtil.recordChange(this, "category", previous, category);
+        }, this);
     }
 
     public void setPageCount(int pageCount) {
         throwIfFalse(() -> isPositive(pageCount), "Page count must be positive");
+        int previous = this.pageCount;
         this.pageCount = pageCount;
-        SerializationUtil.writeExtent();
+        SerializationUtil.recordChange(this, "pageCount", previous, pageCount);
+    }
+
+    @Override
+    public long getId() {
+        return id;
     }
 
     public String getIsbn() {
@@ -123,78 +194,260 @@ public class Book implements Extent {
     }
 
     public static List<Book> getExtent() {
-        return Collections.unmodifiableList(extent);
+        synchronized (extent) {
+            return List.copyOf(extent);
+        }
+    }
+
+    public static Book findById(long id) {
+        return EntityIds.find(id, Book.class);
+    }
+
+    public static Book findByIsbn(String isbn) {
+        return isbnIndex.find(isbn);
+    }
+
+    public static BookQuery query() {
+        return new BookQuery();
+    }
+
+    static HashIndex<String, Book> authorIndex() {
+        return authorIndex;
+    }
+
+    static HashIndex<BookCategory, Book> categoryIndex() {
+        return categoryIndex;
+    }
+
+    static SortedIndex<Integer, Book> yearIndex() {
+        return yearIndex;
+    }
+
+    static SortedIndex<Double, Book> ratingIndex() {
+        return ratingIndex;
+    }
+
+    public void removeFromExtent() {
+        if (extent.removeIf(book -> book == this)) {
+            isbnIndex.remove(this);
+            authorIndex.remove(this);
+            categoryIndex.remove(this);
+            yearIndex.remove(this);
+            ratingIndex.remove(this);
+            idIndex.remove(this);
+            Transaction.onRollback(this, this::restoreToExtent);
+            SerializationUtil.writeExtent(Book.class);
+        }
+    }
+
+    private void restoreToExtent() {
+        isbnIndex.insert(this);
+        authorIndex.insert(this);
+        categoryIndex.insert(this);
+        yearIndex.insert(this);
+        ratingIndex.insert(this);
+        idIndex.insert(this);
+        extent.add(this);
     }
 
     // ordered
     public void addReservation(Reservation reservation) {
         throwIfNull(reservation, "Reservation cannot be null");
 
-        if (!reservations.contains(reservation)) {
-            this.reservations.add(reservation);
-            this.reservations.sort(Comparator.comparing(Reservation::getReservationDate));
-            reservation.setBook(this);
-            SerializationUtil.writeExtent();
-        }
+        StripedLocks.runResolved(() -> new Object[]{this, reservation, reservation.getBook()}, () -> {
+            if (this.reservations.add(reservation)) {
+                Transaction.onRollback(this, () -> this.reservations.remove(reservation));
+                reservation.setBook(this);
+                ChangeEvents.linked(this, "reservations", reservation);
+                SerializationUtil.writeExtent(Book.class);
+            }
+        });
     }
 
     public void removeReservation(Reservation reservation) {
         throwIfNull(reservation, "Reservation cannot be null");
 
-        if (this.reservations.remove(reservation)) {
-            reservation.setBook(null);
-            SerializationUtil.writeExtent();
-        }
+        StripedLocks.run(() -> {
+            if (this.reservations.remove(reservation)) {
+                Transaction.onRollback(this, () -> this.reservations.add(reservation));
+                reservation.setBook(null);
+                ChangeEvents.unlinked(this, "reservations", reservation);
+                SerializationUtil.writeExtent(Book.class);
+            }
+        }, this, reservation);
+    }
+
+    public NavigableSet<Reservation> getReservations() {
+        return this.reservations.view();
+    }
+
+    public NavigableSet<Reservation> getPendingReservations() {
+        return this.reservations.pendingView();
+    }
+
+    public Reservation peekNextReservation() {
+        return this.reservations.peekNextPending();
+    }
+
+    public void reservationStatusChanged(Reservation reservation) {
+        throwIfNull(reservation, "Reservation cannot be null");
+
+        StripedLocks.run(() -> {
+            this.reservations.statusChanged(reservation);
+            Transaction.onRollback(this, () -> this.reservations.statusChanged(reservation));
+            SerializationUtil.writeExtent(Book.class);
+        }, this, reservation);
     }
 
-    public List<Reservation> getReservations() {
-        return Collections.unmodifiableList(this.reservations);
+    public Reservation assignNextHold() {
+        return StripedLocks.callResolved(() -> new Object[]{this, this.reservations.peekNextPending()}, () -> {
+            Reservation next = this.reservations.peekNextPending();
+            if (next != null) {
+                next.fulfill();
+            }
+            return next;
+        });
     }
 
     public void addLoanToHistory(Loan loan) {
         throwIfNull(loan, "Loan cannot be null");
 
-        this.loanHistory.add(loan);
+        StripedLocks.runResolved(() -> new Object[]{this, loan, loan.getBook()}, () -> {
+            this.loanHistory.add(loan);
+            Transaction.onRollback(this, () -> this.loanHistory.remove(this.loanHistory.lastIndexOf(loan)));
 
-        if (loan.getBook() != this) {
-            loan.setBook(this);
-        }
+            if (loan.getBook() != this) {
+                loan.setBook(this);
+            }
 
-        SerializationUtil.writeExtent();
+            ChangeEvents.linked(this, "loanHistory", loan);
+            SerializationUtil.recordLink(this, "loanHistory", loan, true);
+        });
     }
 
     public void removeLoanFromHistory(Loan loan) {
         throwIfNull(loan, "Loan cannot be null");
 
-        this.loanHistory.remove(loan);
+        StripedLocks.run(() -> {
+            int position = this.loanHistory.indexOf(loan);
+            if (position >= 0) {
+                this.loanHistory.remove(position);
+                Transaction.onRollback(this, () -> this.loanHistory.add(position, loan));
+                if (loan.getBook() == this) {
+                    loan.setBook(null);
+                }
+
+                ChangeEvents.unlinked(this, "loanHistory", loan);
+                SerializationUtil.recordLink(this, "loanHistory", loan, false);
+            }
+        }, this, loan);
+    }
 
-        if (loan.getBook() == this) {
-            loan.setBook(null);
+    public boolean hasLoanInHistory(Loan loan) {
+        return this.loanHistory.contains(loan);
+    }
+
+    // archived and compacted loans come first as read-only views, the loans still linked to this book follow
+    public List<Loan> getLoanHistory() {
+        if (this.compactedLoans.size() == 0 && this.compactedLoans.getArchivedCount() == 0) {
+            return Collections.unmodifiableList(this.loanHistory);
         }
+        return this.compactedLoans.history(this, this.loanHistory);
+    }
 
-        SerializationUtil.writeExtent();
+    public int getCompactedLoanCount() {
+        return this.compactedLoans.size();
     }
 
-    public List<Loan> getLoanHistory() {
-        return Collections.unmodifiableList(this.loanHistory);
+    public double getCompactedLateFees() {
+        return this.compactedLoans.getTotalLateFees();
+    }
+
+    public int getArchivedLoanCount() {
+        return this.compactedLoans.getArchivedCount();
+    }
+
+    // the archive is on disk and outside any rollback, so loans older than the retention only ever move out
+    public int archiveLoanHistory(LocalDate asOf) {
+        throwIfFalse(() -> !Transaction.isActive(), "Loans cannot be archived inside a transaction");
+        LocalDate cutoff = LoanArchive.cutoffFor(asOf);
+
+        compactLoanHistory(cutoff);
+        int cutoffDay = (int) Math.min(cutoff.toEpochDay(), Integer.MAX_VALUE);
+        int archived = this.compactedLoans.archiveBefore(cutoffDay, this.id);
+        if (archived > 0) {
+            SerializationUtil.writeExtent(Book.class);
+        }
+        return archived;
+    }
+
+    public static int archiveLoanHistories(LocalDate asOf) {
+        int archived = 0;
+        for (Book book : getExtent()) {
+            archived += book.archiveLoanHistory(asOf);
+        }
+        return archived;
+    }
+
+    // returned loans leave their member, this book and the loan extent, only their columns stay behind
+    public int compactLoanHistory(LocalDate returnedBefore) {
+        throwIfNull(returnedBefore, "Cutoff date cannot be null");
+
+        return SerializationUtil.deferWrites(() -> {
+            int compacted = 0;
+            for (Loan loan : this.loanHistory) {
+                LocalDate returned = loan.getReturnDate();
+                if (returned == null || !returned.isBefore(returnedBefore)) {
+                    continue;
+                }
+                StripedLocks.runResolved(() -> new Object[]{this, loan, loan.getMember()}, () -> {
+                    int previousSize = this.compactedLoans.size();
+                    this.compactedLoans.append(loan);
+                    Transaction.onRollback(this, () -> this.compactedLoans.truncate(previousSize));
+
+                    if (loan.getMember() != null) {
+                        loan.getMember().removeLoan(loan);
+                    }
+                    removeLoanFromHistory(loan);
+                    loan.removeFromExtent();
+                });
+                compacted++;
+            }
+            if (compacted > 0) {
+                this.compactedLoans.trimToSize();
+                SerializationUtil.writeExtent(Book.class);
+            }
+            return compacted;
+        });
+    }
+
+    public static int compactLoanHistories(LocalDate returnedBefore) {
+        int compacted = 0;
+        for (Book book : getExtent()) {
+            compacted += book.compactLoanHistory(returnedBefore);
+        }
+        return compacted;
+    }
+
+    @Override
+    public void afterRestore() {
+        EntityIds.restored(id);
+        EntityIds.restored(compactedLoans.getHighestId());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        afterRestore();
     }
 
     @Override
     public boolean equals(Object o) {
-        if (o == null || getClass() != o.getClass()) return false;
-        Book book = (Book) o;
-        return publicationYear == book.publicationYear
-                && pageCount == book.pageCount
-                && Double.compare(rating, book.rating) == 0
-                && Objects.equals(title, book.title)
-                && Objects.equals(author, book.author)
-                && category == book.category
-                && Objects.equals(loanHistory, book.loanHistory)
-                && Objects.equals(reservations, book.reservations);
+        if (this == o) return true;
+        return o instanceof Book book && id == book.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(title, author, publicationYear, category, pageCount, rating, loanHistory, reservations);
+        return Long.hashCode(id);
     }
 }
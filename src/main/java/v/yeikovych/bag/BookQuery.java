@@ -0,0 +1,104 @@
+package v.yeikovych.bag;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+public class BookQuery {
+
+    private record Criterion(IntSupplier estimate, Supplier<Collection<Book>> candidates, Predicate<Book> test) {
+    }
+
+    private final List<Criterion> criteria = new ArrayList<>();
+
+    BookQuery() {
+    }
+
+    public BookQuery byAuthor(String author) {
+        throwIfNull(author, "Author cannot be null");
+        criteria.add(new Criterion(
+                () -> Book.authorIndex().count(author),
+                () -> Book.authorIndex().find(author),
+                book -> author.equals(book.getAuthor())));
+        return this;
+    }
+
+    public BookQuery inCategory(BookCategory category) {
+        throwIfNull(category, "Category cannot be null");
+        criteria.add(new Criterion(
+                () -> Book.categoryIndex().count(category),
+                () -> Book.categoryIndex().find(category),
+                book -> book.getCategory() == category));
+        return this;
+    }
+
+    public BookQuery publishedBetween(int fromYear, int toYear) {
+        criteria.add(new Criterion(
+                () -> Book.yearIndex().countRange(fromYear, true, toYear, true),
+                () -> Book.yearIndex().range(fromYear, true, toYear, true),
+                book -> book.getPublicationYear() >= fromYear && book.getPublicationYear() <= toYear));
+        return this;
+    }
+
+    public BookQuery ratedAbove(double rating) {
+        criteria.add(new Criterion(
+                () -> Book.ratingIndex().countRange(rating, false, null, false),
+                () -> Book.ratingIndex().range(rating, false, null, false),
+                book -> book.getRating() > rating));
+        return this;
+    }
+
+    public BookQuery ratedBetween(double minRating, double maxRating) {
+        criteria.add(new Criterion(
+                () -> Book.ratingIndex().countRange(minRating, true, maxRating, true),
+                () -> Book.ratingIndex().range(minRating, true, maxRating, true),
+                book -> book.getRating() >= minRating && book.getRating() <= maxRating));
+        return this;
+    }
+
+    public List<Book> list() {
+        if (criteria.isEmpty()) {
+            return Book.getExtent();
+        }
+
+        // drive from the most selective index, the remaining criteria are probed per candidate
+        Criterion driver = criteria.get(0);
+        int smallest = driver.estimate().getAsInt();
+        for (Criterion criterion : criteria.subList(1, criteria.size())) {
+            int estimate = criterion.estimate().getAsInt();
+            if (estimate < smallest) {
+                driver = criterion;
+                smallest = estimate;
+            }
+        }
+        if (smallest == 0) {
+            return List.of();
+        }
+
+        List<Book> matches = new ArrayList<>();
+        for (Book book : driver.candidates().get()) {
+            if (matchesAll(book)) {
+                matches.add(book);
+            }
+        }
+        return matches;
+    }
+
+    public int count() {
+        return list().size();
+    }
+
+    private boolean matchesAll(Book book) {
+        for (Criterion criterion : criteria) {
+            if (!criterion.test().test(book)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
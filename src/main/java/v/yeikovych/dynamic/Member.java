@@ -4,34 +4,52 @@ import v.yeikovych.ordered.Loan;
 import v.yeikovych.ordered.Reservation;
 import v.yeikovych.staticc.Person;
 import v.yeikovych.subset.Event;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.IndexedSortedSet;
+import v.yeikovych.util.OrdinalSet;
+import v.yeikovych.util.Ordinals;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
 import v.yeikovych.util.ValidationException;
 import v.yeikovych.xor.Club;
 import v.yeikovych.xor.ReadingGroup;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
 public class Member extends Person {
+    private static final Ordinals<Member> ordinals = new Ordinals<>(Member.class, member -> member.ordinal);
+
+    // dense, events keep their members in bitsets
+    private final int ordinal = ordinals.next();
     private LocalDate registrationDate;
     // dynamic depends on borrowed items
     private MembershipStatus status;
     // dynamic
-    private int borrowedItemsCount;
+    private volatile int borrowedItemsCount;
     private boolean isBlacklisted;
 
     // ordered
-    private List<Loan> loans = new ArrayList<>();
+    private IndexedSortedSet<Loan> loans = new IndexedSortedSet<>(Loan.DUE_DATE_ORDER);
     // ordered
-    private List<Reservation> reservations = new ArrayList<>();
+    private List<Reservation> reservations = new CopyOnWriteArrayList<>();
 
-    private Set<Event> registeredEvents = new HashSet<>();
-    private Set<Event> attendedEvents = new HashSet<>();
+    private OrdinalSet<Event> registeredEvents = new OrdinalSet<>(Event.class);
+    private OrdinalSet<Event> attendedEvents = new OrdinalSet<>(Event.class);
 
     // XOR
-    private Club club;
-    private ReadingGroup readingGroup;
+    private volatile Club club;
+    private volatile ReadingGroup readingGroup;
+
+    // binary snapshots restore fields directly
+    private Member() {
+    }
 
     public Member(String firstName, String lastName, LocalDate dateOfBirth, String email,
                   String phoneNumber, MembershipStatus status) {
@@ -40,41 +58,50 @@ public class Member extends Person {
         setStatus(status);
         this.borrowedItemsCount = 0;
         this.isBlacklisted = false;
+        ordinals.register(this);
     }
 
     public void setBorrowedItemsCount(int borrowedItemsCount) {
-        throwIfFalse(() -> isNegative(borrowedItemsCount), "Borrowed items count cannot be negative");
+        throwIfFalse(() -> !isNegative(borrowedItemsCount), "Borrowed items count cannot be negative");
 
-        int maxAllowed = getMaxBorrowedItemsForStatus(status);
-        if (borrowedItemsCount > maxAllowed) {
-            throw new ValidationException("Exceeded maximum allowed borrowed items (" +
-                    maxAllowed + ") for member status: " + status);
-        }
+        StripedLocks.run(() -> {
+            int maxAllowed = getMaxBorrowedItemsForStatus(status);
+            if (borrowedItemsCount > maxAllowed) {
+                throw new ValidationException("Exceeded maximum allowed borrowed items (" +
+                        maxAllowed + ") for member status: " + status);
+            }
 
-        this.borrowedItemsCount = borrowedItemsCount;
+            int previous = this.borrowedItemsCount;
+            this.borrowedItemsCount = borrowedItemsCount;
+            SerializationUtil.recordChange(this, "borrowedItemsCount", previous, borrowedItemsCount);
+        }, this);
     }
 
     public void incrementBorrowedItems() {
-        setBorrowedItemsCount(this.borrowedItemsCount + 1);
+        StripedLocks.run(() -> setBorrowedItemsCount(this.borrowedItemsCount + 1), this);
     }
 
     public void decrementBorrowedItems() {
-        setBorrowedItemsCount(this.borrowedItemsCount - 1);
+        StripedLocks.run(() -> setBorrowedItemsCount(this.borrowedItemsCount - 1), this);
     }
 
     public void setStatus(MembershipStatus status) {
         throwIfFalse(() -> status != null, "Status cannot be null");
 
-        if (this.status != null && status.ordinal() < this.status.ordinal()) {
-            int newMaxAllowed = getMaxBorrowedItemsForStatus(status);
-            if (this.borrowedItemsCount > newMaxAllowed) {
-                throw new IllegalArgumentException("Cannot downgrade status: member has " +
-                        this.borrowedItemsCount + " borrowed items, but new status allows only " +
-                        newMaxAllowed);
+        StripedLocks.run(() -> {
+            if (this.status != null && status.ordinal() < this.status.ordinal()) {
+                int newMaxAllowed = getMaxBorrowedItemsForStatus(status);
+                if (this.borrowedItemsCount > newMaxAllowed) {
+                    throw new IllegalArgumentException("Cannot downgrade status: member has " +
+                            this.borrowedItemsCount + " borrowed items, but new status allows only " +
+                            newMaxAllowed);
+                }
             }
-        }
 
-        this.status = status;
+            MembershipStatus previous = this.status;
+            this.status = status;
+            SerializationUtil.recordChange(this, "status", previous, status);
+        }, this);
     }
 
     private int getMaxBorrowedItemsForStatus(MembershipStatus status) {
@@ -86,7 +113,9 @@ public class Member extends Person {
     }
 
     public void setBlacklisted(boolean blacklisted) {
+        boolean previous = this.isBlacklisted;
         this.isBlacklisted = blacklisted;
+        SerializationUtil.recordChange(this, "isBlacklisted", previous, blacklisted);
     }
 
     public LocalDate getRegistrationDate() {
@@ -108,39 +137,69 @@ public class Member extends Person {
     public void registerForEvent(Event event) {
         throwIfNull(event, "Event cannot be null");
 
-        if (!registeredEvents.contains(event)) {
-            registeredEvents.add(event);
-            event.registerMember(this);
-        }
+        StripedLocks.run(() -> {
+            if (!event.getRegisteredMembers().contains(this)) {
+                // the event takes a seat first and calls back once it has one
+                event.registerMember(this);
+                return;
+            }
+            if (!registeredEvents.contains(event)) {
+                registeredEvents.add(event);
+                Transaction.onRollback(this, () -> registeredEvents.remove(event));
+                ChangeEvents.linked(this, "registeredEvents", event);
+                SerializationUtil.writeExtent(Person.class);
+            }
+        }, this);
     }
 
     public void unregisterFromEvent(Event event) {
         throwIfNull(event, "Event cannot be null");
 
-        if (registeredEvents.contains(event)) {
-            registeredEvents.remove(event);
-            event.unregisterMember(this);
-        }
+        StripedLocks.run(() -> {
+            if (registeredEvents.contains(event)) {
+                // attended stays a subset of registered
+                if (attendedEvents.contains(event)) {
+                    removeAttendedEvent(event);
+                }
+                registeredEvents.remove(event);
+                Transaction.onRollback(this, () -> registeredEvents.add(event));
+                event.unregisterMember(this);
+                ChangeEvents.unlinked(this, "registeredEvents", event);
+                SerializationUtil.writeExtent(Person.class);
+            }
+        }, this, event);
     }
 
     public void addAttendedEvent(Event event) {
         throwIfNull(event, "Event cannot be null");
-        throwIfFalse(() -> registeredEvents.contains(event),
-                "Member must be registered for the event before being marked as attended");
 
-        if (!attendedEvents.contains(event)) {
-            attendedEvents.add(event);
-            event.markMemberAttended(this);
-        }
+        StripedLocks.run(() -> {
+            throwIfFalse(() -> registeredEvents.contains(event),
+                    "Member must be registered for the event before being marked as attended");
+
+            if (!attendedEvents.contains(event)) {
+                attendedEvents.add(event);
+                Transaction.onRollback(this, () -> attendedEvents.remove(event));
+                event.markMemberAttended(this);
+                ChangeEvents.linked(this, "attendedEvents", event);
+                SerializationUtil.writeExtent(Person.class);
+            }
+        }, this, event);
     }
 
     public void removeAttendedEvent(Event event) {
         throwIfNull(event, "Event cannot be null");
 
-        if (registeredEvents.contains(event)) {
-            attendedEvents.remove(event);
-            event.unmarkMemberAttended(this);
-        }
+        StripedLocks.run(() -> {
+            if (registeredEvents.contains(event)) {
+                if (attendedEvents.remove(event)) {
+                    Transaction.onRollback(this, () -> attendedEvents.add(event));
+                    ChangeEvents.unlinked(this, "attendedEvents", event);
+                }
+                event.unmarkMemberAttended(this);
+                SerializationUtil.writeExtent(Person.class);
+            }
+        }, this, event);
     }
 
     public Set<Event> getAttendedEvents() {
@@ -151,62 +210,100 @@ public class Member extends Person {
         return Collections.unmodifiableSet(registeredEvents);
     }
 
-    public List<Loan> getLoans() {
-        return loans.stream().sorted(Comparator.comparing(Loan::getDueDate)).toList();
+    public NavigableSet<Loan> getLoans() {
+        return loans.view();
+    }
+
+    public boolean hasLoan(Loan loan) {
+        return loans.contains(loan);
     }
 
     public void addLoan(Loan loan) {
         throwIfNull(loan, "Loan cannot be null");
 
-        if (!loans.contains(loan)) {
-            this.loans.add(loan);
-            loan.setMember(this);
-            incrementBorrowedItems();
-        }
+        StripedLocks.runResolved(() -> new Object[]{this, loan, loan.getMember()}, () -> {
+            if (this.loans.add(loan)) {
+                Transaction.onRollback(this, () -> this.loans.remove(loan));
+                loan.setMember(this);
+                incrementBorrowedItems();
+                ChangeEvents.linked(this, "loans", loan);
+                SerializationUtil.recordLink(this, "loans", loan, true);
+            }
+        });
     }
 
     public void removeLoan(Loan loan) {
         throwIfNull(loan, "Loan cannot be null");
 
-        if (loans.contains(loan)) {
-            this.loans.remove(loan);
-            loan.setMember(null);
-            decrementBorrowedItems();
-        }
+        StripedLocks.run(() -> {
+            if (this.loans.remove(loan)) {
+                Transaction.onRollback(this, () -> this.loans.add(loan));
+                loan.setMember(null);
+                decrementBorrowedItems();
+                ChangeEvents.unlinked(this, "loans", loan);
+                SerializationUtil.recordLink(this, "loans", loan, false);
+            }
+        }, this, loan);
     }
 
     public void setClub(Club club) {
-        if (club != null) {
-            throwIfFalse(() -> this.readingGroup == null,
-                    "Member cannot be in both a Club and a Reading Group");
-        }
+        StripedLocks.runResolved(() -> new Object[]{this, this.club, club}, () -> {
+            if (club != null) {
+                throwIfFalse(() -> this.readingGroup == null,
+                        "Member cannot be in both a Club and a Reading Group");
+            }
+
+            if (this.club != null && this.club != club) {
+                this.club.removeMember(this);
+            }
 
-        if (this.club != null && this.club != club) {
-            this.club.removeMember(this);
-        }
+            Club previous = this.club;
+            this.club = club;
+            Transaction.onRollback(this, () -> this.club = previous);
 
-        this.club = club;
+            if (club != null) {
+                club.addMember(this);
+            }
 
-        if (club != null) {
-            club.addMember(this);
-        }
+            if (previous != club) {
+                ChangeEvents.updated(this, "club", previous, club);
+            }
+            SerializationUtil.writeExtent(Person.class);
+        });
     }
 
+    // a member's place in any group only changes under its own stripe, so no group is locked on the way
     public void setReadingGroup(ReadingGroup readingGroup) {
-        if (readingGroup != null) {
-            throwIfFalse(() -> this.club == null,
-                    "Member cannot be in both a Club and a Reading Group");
-        }
+        StripedLocks.run(() -> {
+            if (readingGroup != null) {
+                throwIfFalse(() -> this.club == null,
+                        "Member cannot be in both a Club and a Reading Group");
+
+                if (!readingGroup.getParticipants().contains(this)) {
+                    // the group takes a seat first and calls back once it has one
+                    readingGroup.addParticipant(this);
+                    return;
+                }
+            }
 
-        if (this.readingGroup != null && this.readingGroup != readingGroup) {
-            this.readingGroup.removeParticipant(this);
-        }
+            // the field moves before the old group lets go, so leaving it does not call back to clear it
+            ReadingGroup previous = this.readingGroup;
+            this.readingGroup = readingGroup;
+            Transaction.onRollback(this, () -> this.readingGroup = previous);
 
-        this.readingGroup = readingGroup;
+            if (previous != null && previous != readingGroup) {
+                previous.removeParticipant(this);
+            }
 
-        if (readingGroup != null) {
-            readingGroup.addParticipant(this);
-        }
+            if (readingGroup != null) {
+                readingGroup.addParticipant(this);
+            }
+
+            if (previous != readingGroup) {
+                ChangeEvents.updated(this, "readingGroup", previous, readingGroup);
+            }
+            SerializationUtil.writeExtent(Person.class);
+        }, this);
     }
 
     public Club getClub() {
@@ -220,18 +317,28 @@ public class Member extends Person {
     public void addReservation(Reservation reservation) {
         throwIfNull(reservation, "Reservation cannot be null");
 
-        if (!this.reservations.contains(reservation)) {
-            this.reservations.add(reservation);
-            reservation.setMember(this);
-        }
+        StripedLocks.runResolved(() -> new Object[]{this, reservation, reservation.getMember()}, () -> {
+            if (!this.reservations.contains(reservation)) {
+                this.reservations.add(reservation);
+                Transaction.onRollback(this, () -> this.reservations.remove(reservation));
+                reservation.setMember(this);
+                ChangeEvents.linked(this, "reservations", reservation);
+                SerializationUtil.writeExtent(Person.class);
+            }
+        });
     }
 
     public void removeReservation(Reservation reservation) {
         throwIfNull(reservation, "Reservation cannot be null");
 
-        if (this.reservations.remove(reservation)) {
-            reservation.setMember(null);
-        }
+        StripedLocks.run(() -> {
+            if (this.reservations.remove(reservation)) {
+                Transaction.onRollback(this, () -> this.reservations.add(reservation));
+                reservation.setMember(null);
+                ChangeEvents.unlinked(this, "reservations", reservation);
+                SerializationUtil.writeExtent(Person.class);
+            }
+        }, this, reservation);
     }
 
     public List<Reservation> getReservations() {
@@ -239,22 +346,13 @@ public class Member extends Person {
     }
 
     @Override
-    public boolean equals(Object o) {
-        if (o == null || getClass() != o.getClass()) return false;
-        if (!super.equals(o)) return false;
-        Member member = (Member) o;
-        return borrowedItemsCount == member.borrowedItemsCount
-                && isBlacklisted == member.isBlacklisted
-                && Objects.equals(registrationDate, member.registrationDate)
-                && status == member.status && Objects.equals(loans, member.loans)
-                && Objects.equals(reservations, member.reservations)
-                && Objects.equals(registeredEvents, member.registeredEvents)
-                && Objects.equals(club, member.club)
-                && Objects.equals(readingGroup, member.readingGroup);
+    public void afterRestore() {
+        super.afterRestore();
+        ordinals.register(this);
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(super.hashCode(), registrationDate, status, borrowedItemsCount, isBlacklisted, loans, reservations, registeredEvents, club, readingGroup);
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ordinals.register(this);
     }
 }
@@ -0,0 +1,167 @@
+package v.yeikovych.importer;
+
+import v.yeikovych.bag.Book;
+import v.yeikovych.bag.BookCategory;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.dynamic.MembershipStatus;
+import v.yeikovych.staticc.Person;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.ValidationException;
+
+import java.io.Reader;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+public class BulkImporter {
+
+    private static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private record BookRow(String isbn, String title, String author, int publicationYear,
+                           BookCategory category, int pageCount, Double rating) {
+    }
+
+    private record MemberRow(String firstName, String lastName, LocalDate dateOfBirth, String email,
+                             String phoneNumber, MembershipStatus status) {
+    }
+
+    private record Checked<R>(RowReader.Row row, R value, String error) {
+    }
+
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    public BulkImporter() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BATCH_SIZE);
+    }
+
+    public BulkImporter(ForkJoinPool pool, int batchSize) {
+        throwIfNull(pool, "Pool cannot be null");
+        throwIfFalse(() -> batchSize > 0, "Batch size must be positive");
+        this.pool = pool;
+        this.batchSize = batchSize;
+    }
+
+    // columns: isbn, title, author, publicationYear, category, pageCount, optional rating
+    public ImportReport importBooks(Reader source, ImportFormat format) {
+        return run(source, format, BulkImporter::toBookRow, BookRow::isbn,
+                isbn -> Book.findByIsbn(isbn) != null, "ISBN already exists: ",
+                row -> {
+                    Book book = new Book(row.isbn(), row.title(), row.author(), row.publicationYear(),
+                            row.category(), row.pageCount());
+                    if (row.rating() != null) {
+                        book.setRating(row.rating());
+                    }
+                });
+    }
+
+    // columns: firstName, lastName, dateOfBirth, email, phoneNumber, status
+    public ImportReport importMembers(Reader source, ImportFormat format) {
+        return run(source, format, BulkImporter::toMemberRow, MemberRow::email,
+                email -> Person.findByEmail(email) != null, "Email already in use: ",
+                row -> new Member(row.firstName(), row.lastName(), row.dateOfBirth(), row.email(),
+                        row.phoneNumber(), row.status()));
+    }
+
+    private <R> ImportReport run(Reader source, ImportFormat format, Function<RowReader.Row, R> validator,
+                                 Function<R, String> uniqueKey, Predicate<String> alreadyStored,
+                                 String duplicateMessage, Consumer<R> inserter) {
+        throwIfNull(source, "Source cannot be null");
+        throwIfNull(format, "Format cannot be null");
+
+        ImportReport report = new ImportReport();
+        RowReader reader = new RowReader(source, format);
+        Set<String> seenKeys = new HashSet<>();
+
+        // every constructor and setter call below only marks the extents dirty, one write happens on exit
+        return SerializationUtil.deferWrites(() -> {
+            List<RowReader.Row> batch;
+            while (!(batch = reader.nextBatch(batchSize)).isEmpty()) {
+                List<RowReader.Row> rows = batch;
+                List<Checked<R>> checked = pool.submit(() -> rows.parallelStream()
+                        .map(row -> check(row, validator))
+                        .toList()).join();
+
+                for (Checked<R> result : checked) {
+                    long line = result.row().line();
+                    if (result.error() != null) {
+                        report.recordError(line, result.error());
+                        continue;
+                    }
+
+                    String key = uniqueKey.apply(result.value());
+                    if (!seenKeys.add(key) || alreadyStored.test(key)) {
+                        report.recordError(line, duplicateMessage + key);
+                        continue;
+                    }
+
+                    try {
+                        inserter.accept(result.value());
+                        report.recordImported();
+                    } catch (IllegalArgumentException | ValidationException e) {
+                        report.recordError(line, e.getMessage());
+                    }
+                }
+            }
+            return report;
+        });
+    }
+
+    private static <R> Checked<R> check(RowReader.Row row, Function<RowReader.Row, R> validator) {
+        if (row.error() != null) {
+            return new Checked<>(row, null, row.error());
+        }
+        try {
+            return new Checked<>(row, validator.apply(row), null);
+        } catch (IllegalArgumentException | ValidationException | DateTimeParseException e) {
+            return new Checked<>(row, null, e.getMessage());
+        }
+    }
+
+    private static BookRow toBookRow(RowReader.Row row) {
+        String isbn = row.require("isbn");
+        String title = row.require("title");
+        String author = row.require("author");
+        int publicationYear = Integer.parseInt(row.require("publicationYear"));
+        BookCategory category = BookCategory.valueOf(row.require("category").toUpperCase());
+        int pageCount = Integer.parseInt(row.require("pageCount"));
+        String ratingText = row.optional("rating");
+        Double rating = ratingText == null ? null : Double.parseDouble(ratingText);
+
+        int currentYear = LocalDate.now().getYear();
+        throwIfFalse(() -> isValidIsbn(isbn), "Invalid ISBN format");
+        throwIfFalse(() -> isValidName(title), "Title must not be null or empty");
+        throwIfFalse(() -> isValidName(author), "Author name must not be null or empty");
+        throwIfFalse(() -> publicationYear >= 1500 && publicationYear <= currentYear,
+                "Publication year must be between 1500 and " + currentYear);
+        throwIfFalse(() -> isPositive(pageCount), "Page count must be positive");
+        throwIfFalse(() -> rating == null || rating > 0 && rating <= 5, "Rating must be between 0 and 5");
+
+        return new BookRow(isbn, title, author, publicationYear, category, pageCount, rating);
+    }
+
+    private static MemberRow toMemberRow(RowReader.Row row) {
+        String firstName = row.require("firstName");
+        String lastName = row.require("lastName");
+        LocalDate dateOfBirth = LocalDate.parse(row.require("dateOfBirth"));
+        String email = row.require("email");
+        String phoneNumber = row.require("phoneNumber");
+        MembershipStatus status = MembershipStatus.valueOf(row.require("status").toUpperCase());
+
+        throwIfFalse(() -> isValidName(firstName), "First name is not valid");
+        throwIfFalse(() -> isValidName(lastName), "Last name is not valid");
+        throwIfFalse(() -> isValidDateOfBirth(dateOfBirth), "Date of birth is not valid");
+        throwIfFalse(() -> isValidEmail(email), "Email is not valid");
+        throwIfFalse(() -> isValidPhoneNumber(phoneNumber), "Phone number is not valid");
+
+        return new MemberRow(firstName, lastName, dateOfBirth, email, phoneNumber, status);
+    }
+}
@@ -0,0 +1,6 @@
+package v.yeikovych.importer;
+
+public enum ImportFormat {
+    CSV,
+    JSON_LINES
+}
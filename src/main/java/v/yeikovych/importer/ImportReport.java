@@ -0,0 +1,42 @@
+package v.yeikovych.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ImportReport {
+
+    public record RowError(long line, String message) {
+    }
+
+    private int imported;
+    private final List<RowError> errors = new ArrayList<>();
+
+    void recordImported() {
+        imported++;
+    }
+
+    void recordError(long line, String message) {
+        errors.add(new RowError(line, message));
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public List<RowError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ImportReport{" +
+                "imported=" + imported +
+                ", errors=" + errors.size() +
+                '}';
+    }
+}
@@ -0,0 +1,212 @@
+package v.yeikovych.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class RowReader {
+
+    record Row(long line, Map<String, String> values, String error) {
+
+        String require(String field) {
+            String value = values.get(field);
+            if (value == null || value.isBlank()) {
+                throw new IllegalArgumentException("Missing field: " + field);
+            }
+            return value.trim();
+        }
+
+        String optional(String field) {
+            String value = values.get(field);
+            return value == null || value.isBlank() ? null : value.trim();
+        }
+    }
+
+    private final BufferedReader reader;
+    private final ImportFormat format;
+    private List<String> header;
+    private long line;
+
+    RowReader(Reader source, ImportFormat format) {
+        this.reader = source instanceof BufferedReader buffered ? buffered : new BufferedReader(source);
+        this.format = format;
+    }
+
+    List<Row> nextBatch(int batchSize) {
+        List<Row> batch = new ArrayList<>(batchSize);
+        try {
+            String text;
+            while (batch.size() < batchSize && (text = reader.readLine()) != null) {
+                line++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                if (format == ImportFormat.CSV && header == null) {
+                    header = splitCsv(text);
+                    continue;
+                }
+                batch.add(parse(text));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return batch;
+    }
+
+    private Row parse(String text) {
+        try {
+            return new Row(line, format == ImportFormat.CSV ? toCsvRow(text) : parseJsonObject(text), null);
+        } catch (IllegalArgumentException e) {
+            return new Row(line, Map.of(), e.getMessage());
+        }
+    }
+
+    private Map<String, String> toCsvRow(String text) {
+        List<String> fields = splitCsv(text);
+        if (fields.size() != header.size()) {
+            throw new IllegalArgumentException("Expected " + header.size() + " fields but found " + fields.size());
+        }
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            values.put(header.get(i), fields.get(i));
+        }
+        return values;
+    }
+
+    // RFC 4180 quoting within a single line
+    private static List<String> splitCsv(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    // flat objects only, scalar values are kept as their text
+    private static Map<String, String> parseJsonObject(String text) {
+        Map<String, String> values = new HashMap<>();
+        int[] pos = {skipWhitespace(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String key = readString(text, pos);
+                expect(text, pos, ':');
+                String value = peek(text, pos) == '"' ? readString(text, pos) : readLiteral(text, pos);
+                if (value != null) {
+                    values.put(key, value);
+                }
+                char next = peek(text, pos);
+                pos[0]++;
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw new IllegalArgumentException("Malformed JSON at column " + pos[0]);
+                }
+            }
+        }
+        if (skipWhitespace(text, pos[0]) != text.length()) {
+            throw new IllegalArgumentException("Trailing content after JSON object");
+        }
+        return values;
+    }
+
+    private static String readString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder value = new StringBuilder();
+        for (int i = pos[0]; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                pos[0] = i + 1;
+                return value.toString();
+            }
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (++i >= text.length()) {
+                break;
+            }
+            char escaped = text.charAt(i);
+            switch (escaped) {
+                case 'n' -> value.append('\n');
+                case 't' -> value.append('\t');
+                case 'r' -> value.append('\r');
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'u' -> {
+                    if (i + 4 >= text.length()) {
+                        throw new IllegalArgumentException("Malformed unicode escape");
+                    }
+                    value.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                default -> value.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated JSON string");
+    }
+
+    private static String readLiteral(String text, int[] pos) {
+        int start = pos[0];
+        int end = start;
+        while (end < text.length() && ",} \t".indexOf(text.charAt(end)) < 0) {
+            end++;
+        }
+        if (end == start) {
+            throw new IllegalArgumentException("Missing JSON value at column " + start);
+        }
+        pos[0] = end;
+        String literal = text.substring(start, end);
+        return literal.equals("null") ? null : literal;
+    }
+
+    private static void expect(String text, int[] pos, char expected) {
+        if (peek(text, pos) != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at column " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipWhitespace(text, pos[0]);
+        return pos[0] < text.length() ? text.charAt(pos[0]) : '\0';
+    }
+
+    private static int skipWhitespace(String text, int pos) {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
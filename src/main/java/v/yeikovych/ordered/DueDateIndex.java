@@ -0,0 +1,74 @@
+package v.yeikovych.ordered;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.function.Function;
+
+class DueDateIndex<T> {
+    // entries bucketed by date as epoch day
+    private final NavigableMap<Long, Set<T>> entriesByDay = new TreeMap<>();
+    private final Function<T, LocalDate> dateExtractor;
+    private int size;
+
+    DueDateIndex(Function<T, LocalDate> dateExtractor) {
+        this.dateExtractor = dateExtractor;
+    }
+
+    synchronized void add(T entry) {
+        if (entriesByDay.computeIfAbsent(dayOf(entry), day -> new LinkedHashSet<>()).add(entry)) {
+            size++;
+        }
+    }
+
+    synchronized void remove(T entry) {
+        long day = dayOf(entry);
+        Set<T> bucket = entriesByDay.get(day);
+        if (bucket != null && bucket.remove(entry)) {
+            size--;
+            if (bucket.isEmpty()) {
+                entriesByDay.remove(day);
+            }
+        }
+    }
+
+    // detaches every entry dated strictly before the given day
+    synchronized List<T> pollDueBefore(long epochDay) {
+        return pollDueBefore(epochDay, Integer.MAX_VALUE);
+    }
+
+    // detaches at most limit entries dated strictly before the given day, earliest first
+    synchronized List<T> pollDueBefore(long epochDay, int limit) {
+        List<T> due = new ArrayList<>();
+        Iterator<Set<T>> buckets = entriesByDay.headMap(epochDay, false).values().iterator();
+        while (buckets.hasNext() && due.size() < limit) {
+            Set<T> bucket = buckets.next();
+            Iterator<T> entries = bucket.iterator();
+            while (entries.hasNext() && due.size() < limit) {
+                due.add(entries.next());
+                entries.remove();
+            }
+            if (bucket.isEmpty()) {
+                buckets.remove();
+            }
+        }
+        size -= due.size();
+        return due;
+    }
+
+    synchronized boolean hasDueBefore(long epochDay) {
+        return !entriesByDay.isEmpty() && entriesByDay.firstKey() < epochDay;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void clear() {
+        entriesByDay.clear();
+        size = 0;
+    }
+
+    private long dayOf(T entry) {
+        return dateExtractor.apply(entry).toEpochDay();
+    }
+}
@@ -1,25 +1,84 @@
 package v.yeikovych.ordered;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import v.yeikovych.bag.Book;
 import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.EntityIds;
+import v.yeikovych.util.Extent;
+import v.yeikovych.util.ExtentIndex;
+import v.yeikovych.util.Restorable;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
-public class Loan {
-    // custom
-    private LocalDate loanDate;
+public class Loan implements Extent, Restorable {
+    public static final Comparator<Loan> DUE_DATE_ORDER = new DueDateOrder();
+    private static final AtomicLong sequenceGenerator = new AtomicLong();
+    private static final double LATE_FEE_PER_DAY = 1.0;
+    static final int NO_DAY = Integer.MIN_VALUE;
+    private static final DueDateIndex<Loan> openLoans = new DueDateIndex<>(Loan::getDueDate);
+
+    private static List<Loan> extent = Collections.synchronizedList(new ArrayList<>());
+    private static final ExtentIndex<Loan> idIndex = EntityIds.indexFor(Loan.class);
+
+    static {
+        SerializationUtil.registerResetListener(openLoans::clear);
+        SerializationUtil.registerExtent(extent, Loan.class);
+        SerializationUtil.registerIndex(Loan.class, idIndex);
+    }
+
+    // unique
+    private final long id;
+
+    // custom, dates are kept as epoch days
+    private int loanDate;
     // custom
-    private LocalDate dueDate;
-    private LocalDate returnDate;
-    private boolean isOverdue;
-    private double lateFee;
+    private int dueDate;
+    private int returnDate = NO_DAY;
+    // overdue once positive, the fee follows from it
+    private int daysLate;
+
+    private volatile Member member;
+    private volatile Book book;
+
+    // tie-breaker for loans due on the same day
+    private final long sequence;
+    // views over a LoanStore row are never linked, indexed or persisted
+    private final transient boolean compacted;
+
+    // binary snapshots restore fields directly
+    private Loan() {
+        this.id = EntityIds.next();
+        this.sequence = sequenceGenerator.incrementAndGet();
+        this.compacted = false;
+    }
 
-    private Member member;
-    private Book book;
+    private Loan(long id, Member member, Book book, int loanDate, int dueDate, int returnDate, int daysLate) {
+        this.id = id;
+        // ids follow creation order just like sequences do
+        this.sequence = id;
+        this.compacted = true;
+        this.member = member;
+        this.book = book;
+        this.loanDate = loanDate;
+        this.dueDate = dueDate;
+        this.returnDate = returnDate;
+        this.daysLate = daysLate;
+    }
 
     public Loan(Member member, Book book, LocalDate loanDate, LocalDate dueDate) {
+        this();
         throwIfNull(member, "Member cannot be null");
         throwIfNull(book, "Book cannot be null");
         throwIfNull(loanDate, "Loan date cannot be null");
@@ -27,50 +86,92 @@ public class Loan {
         throwIfFalse(() -> !dueDate.isBefore(loanDate),
                 "Due date cannot be before loan date");
 
+        this.loanDate = (int) loanDate.toEpochDay();
+        this.dueDate = (int) dueDate.toEpochDay();
         setMember(member);
         setBook(book);
-        this.loanDate = loanDate;
-        this.dueDate = dueDate;
-        this.isOverdue = false;
-        this.lateFee = 0.0;
+        idIndex.insert(this);
+        extent.add(this);
+        Transaction.onRollback(this, this::removeFromExtent);
+        SerializationUtil.recordInsert(this);
     }
 
     public void checkIfOverdue() {
-        if (returnDate == null || LocalDate.now().isAfter(dueDate)) {
-            this.isOverdue = true;
-            long daysLate = LocalDate.now().toEpochDay() - dueDate.toEpochDay();
-            this.lateFee = daysLate * 1.0;
+        checkIfOverdue(LocalDate.now());
+    }
+
+    public void checkIfOverdue(LocalDate asOf) {
+        throwIfNull(asOf, "Date cannot be null");
+        throwIfFalse(() -> !compacted, "Compacted loans are read-only");
+
+        int effectiveDay = returnDate != NO_DAY ? returnDate : (int) asOf.toEpochDay();
+        if (effectiveDay > dueDate) {
+            int previousDaysLate = this.daysLate;
+            this.daysLate = effectiveDay - dueDate;
+            openLoans.remove(this);
+            Transaction.onRollback(this, () -> {
+                this.daysLate = previousDaysLate;
+                syncDueIndex();
+            });
         }
     }
 
     public void returnBook(LocalDate returnDate) {
         throwIfNull(returnDate, "Return date cannot be null");
-        throwIfFalse(() -> !returnDate.isBefore(loanDate),
+        throwIfFalse(() -> returnDate.toEpochDay() >= loanDate,
                 "Return date cannot be before loan date");
+        throwIfFalse(() -> !compacted, "Compacted loans are read-only");
 
-        this.returnDate = returnDate;
+        int previousReturnDate = this.returnDate;
+        int previousDaysLate = this.daysLate;
+        this.returnDate = (int) returnDate.toEpochDay();
+        openLoans.remove(this);
+        Transaction.onRollback(this, () -> {
+            this.returnDate = previousReturnDate;
+            this.daysLate = previousDaysLate;
+            syncDueIndex();
+        });
 
         checkIfOverdue();
+        // days late follow from the dates when the loan is read back
+        SerializationUtil.recordChange(this, "returnDate", previousReturnDate, this.returnDate);
+
+        if (book != null) {
+            book.assignNextHold();
+        }
+    }
+
+    @Override
+    public long getId() {
+        return id;
     }
 
     public LocalDate getLoanDate() {
-        return loanDate;
+        return LocalDate.ofEpochDay(loanDate);
     }
 
     public LocalDate getDueDate() {
-        return dueDate;
+        return LocalDate.ofEpochDay(dueDate);
     }
 
     public LocalDate getReturnDate() {
-        return returnDate;
+        return returnDate == NO_DAY ? null : LocalDate.ofEpochDay(returnDate);
+    }
+
+    public boolean isReturned() {
+        return returnDate != NO_DAY;
     }
 
     public boolean isOverdue() {
-        return isOverdue;
+        return daysLate > 0;
     }
 
     public double getLateFee() {
-        return lateFee;
+        return lateFeeFor(daysLate);
+    }
+
+    public boolean isCompacted() {
+        return compacted;
     }
 
     public Member getMember() {
@@ -82,26 +183,145 @@ public class Loan {
     }
 
     public void setMember(Member member) {
-        if (this.member != null && this.member != member) {
-            this.member.removeLoan(this);
+        throwIfFalse(() -> !compacted, "Compacted loans are read-only");
+
+        StripedLocks.runResolved(() -> new Object[]{this, this.member, member}, () -> {
+            if (this.member != null && this.member != member) {
+                this.member.removeLoan(this);
+            }
+
+            Member previous = this.member;
+            this.member = member;
+            syncDueIndex();
+            Transaction.onRollback(this, () -> {
+                this.member = previous;
+                syncDueIndex();
+            });
+
+            if (member != null && !member.hasLoan(this)) {
+                member.addLoan(this);
+            }
+
+            if (previous != member) {
+                SerializationUtil.recordChange(this, "member", previous, member);
+            }
+        });
+    }
+
+    public void setBook(Book book) {
+        throwIfFalse(() -> !compacted, "Compacted loans are read-only");
+
+        StripedLocks.runResolved(() -> new Object[]{this, this.book, book}, () -> {
+            if (this.book != null && this.book != book) {
+                this.book.removeLoanFromHistory(this);
+            }
+
+            Book previous = this.book;
+            this.book = book;
+            Transaction.onRollback(this, () -> this.book = previous);
+
+            if (book != null && !book.hasLoanInHistory(this)) {
+                book.addLoanToHistory(this);
+            }
+
+            if (previous != book) {
+                SerializationUtil.recordChange(this, "book", previous, book);
+            }
+        });
+    }
+
+    public static List<Loan> getExtent() {
+        synchronized (extent) {
+            return List.copyOf(extent);
         }
+    }
 
-        this.member = member;
+    public static Loan findById(long id) {
+        return EntityIds.find(id, Loan.class);
+    }
 
-        if (member != null && !member.getLoans().contains(this)) {
-            member.addLoan(this);
+    public void removeFromExtent() {
+        throwIfFalse(() -> !compacted, "Compacted loans are read-only");
+
+        if (extent.remove(this)) {
+            idIndex.remove(this);
+            Transaction.onRollback(this, () -> {
+                idIndex.insert(this);
+                extent.add(this);
+            });
+            SerializationUtil.writeExtent(Loan.class);
         }
     }
 
-    public void setBook(Book book) {
-        if (this.book != null && this.book != book) {
-            this.book.removeLoanFromHistory(this);
+    // only open loans with a borrower are waiting to fall due
+    private void syncDueIndex() {
+        if (member != null && returnDate == NO_DAY && daysLate == 0) {
+            openLoans.add(this);
+        } else {
+            openLoans.remove(this);
         }
+    }
 
-        this.book = book;
+    @Override
+    public void afterRestore() {
+        sequenceGenerator.accumulateAndGet(sequence, Math::max);
+        EntityIds.restored(id);
+        // snapshots from before epoch days carry no late days, a returned loan can work them out again
+        if (returnDate != NO_DAY && daysLate == 0) {
+            daysLate = Math.max(returnDate - dueDate, 0);
+        }
+        syncDueIndex();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        afterRestore();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        return o instanceof Loan loan && id == loan.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
+    static DueDateIndex<Loan> openLoans() {
+        return openLoans;
+    }
+
+    static Loan compacted(long id, Member member, Book book, int loanDate, int dueDate, int returnDate, int daysLate) {
+        return new Loan(id, member, book, loanDate, dueDate, returnDate, daysLate);
+    }
+
+    static double lateFeeFor(long daysLate) {
+        return daysLate * LATE_FEE_PER_DAY;
+    }
+
+    int loanDay() {
+        return loanDate;
+    }
+
+    int dueDay() {
+        return dueDate;
+    }
+
+    int returnDay() {
+        return returnDate;
+    }
+
+    int daysLate() {
+        return daysLate;
+    }
 
-        if (book != null && !book.getLoanHistory().contains(this)) {
-            book.addLoanToHistory(this);
+    private static class DueDateOrder implements Comparator<Loan>, Serializable {
+        @Override
+        public int compare(Loan a, Loan b) {
+            int byDueDate = Integer.compare(a.dueDate, b.dueDate);
+            return byDueDate != 0 ? byDueDate : Long.compare(a.sequence, b.sequence);
         }
     }
 }
@@ -0,0 +1,200 @@
+package v.yeikovych.ordered;
+
+import v.yeikovych.bag.Book;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.Durability;
+import v.yeikovych.util.EntityIds;
+import v.yeikovych.util.FileSync;
+import v.yeikovych.util.SerializationUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+// cold tier for loan history, one file per return month that only ever grows by whole framed gzip members
+public final class LoanArchive {
+
+    private static final String DIRECTORY_NAME = "loan-archive";
+    private static final String SEGMENT_SUFFIX = ".loans";
+    // book id, row count and compressed length
+    private static final int FRAME_HEADER_BYTES = Long.BYTES + Integer.BYTES * 2;
+
+    private static volatile Period retention = Period.parse(System.getProperty("mas.archive.retention", "P1Y"));
+    private static final Object appendLock = new Object();
+
+    private LoanArchive() {
+    }
+
+    record ArchivedLoan(long id, long bookId, long memberId, int loanDay, int dueDay, int returnDay, int daysLate) {
+
+        Loan view(Book book) {
+            Member member = memberId == LoanStore.NO_MEMBER ? null : EntityIds.find(memberId, Member.class);
+            return Loan.compacted(id, member, book, loanDay, dueDay, returnDay, daysLate);
+        }
+    }
+
+    public static Period getRetention() {
+        return retention;
+    }
+
+    public static void setRetention(Period retention) {
+        throwIfNull(retention, "Retention cannot be null");
+        throwIfFalse(() -> !retention.isNegative(), "Retention cannot be negative");
+
+        LoanArchive.retention = retention;
+    }
+
+    // loans returned before this day are old enough for the archive
+    public static LocalDate cutoffFor(LocalDate asOf) {
+        throwIfNull(asOf, "Date cannot be null");
+        return asOf.minus(retention);
+    }
+
+    static int monthOf(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    // one frame per book and pass, an uncompressed header in front lets readers seek past other books; a pass cut
+    // short by a crash before the snapshot leaves its rows in the store, so rows already archived are skipped
+    static void append(int month, long bookId, List<ArchivedLoan> loans) {
+        Path segment = segmentOf(month);
+        synchronized (appendLock) {
+            try {
+                boolean newDirectory = !Files.isDirectory(segment.getParent());
+                boolean newSegment = !Files.exists(segment);
+                Files.createDirectories(segment.getParent());
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    List<ArchivedLoan> archived = new ArrayList<>();
+                    long end = readFrames(channel, channel.size(), bookId, archived);
+                    Set<Long> archivedIds = new HashSet<>();
+                    for (ArchivedLoan loan : archived) {
+                        archivedIds.add(loan.id());
+                    }
+                    List<ArchivedLoan> missing = loans.stream()
+                            .filter(loan -> !archivedIds.contains(loan.id()))
+                            .toList();
+                    if (missing.isEmpty()) {
+                        return;
+                    }
+
+                    channel.truncate(end);
+                    ByteBuffer frame = frameOf(bookId, missing);
+                    while (frame.hasRemaining()) {
+                        end += channel.write(frame, end);
+                    }
+                    // the rows leave the store once this returns, so unless durability is off they are on the device
+                    if (SerializationUtil.getDurability() != Durability.NONE) {
+                        channel.force(true);
+                        if (newSegment) {
+                            FileSync.forceDirectory(segment.getParent());
+                        }
+                        if (newDirectory) {
+                            FileSync.forceDirectory(segment.getParent().getParent());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Loan archive append failed for " + YearMonth.of(month / 12, month % 12 + 1), e);
+            }
+        }
+    }
+
+    private static ByteBuffer frameOf(long bookId, List<ArchivedLoan> loans) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(body))) {
+            for (ArchivedLoan loan : loans) {
+                out.writeLong(loan.id());
+                out.writeLong(loan.memberId());
+                out.writeInt(loan.loanDay());
+                out.writeInt(loan.dueDay());
+                out.writeInt(loan.returnDay());
+                out.writeInt(loan.daysLate());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ByteBuffer.allocate(FRAME_HEADER_BYTES + body.size())
+                .putLong(bookId)
+                .putInt(loans.size())
+                .putInt(body.size())
+                .put(body.toByteArray())
+                .flip();
+    }
+
+    static List<ArchivedLoan> read(int month, long bookId) {
+        Path segment = segmentOf(month);
+        List<ArchivedLoan> loans = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            // frames are appended whole under the lock, so everything up to this size is complete
+            long end;
+            synchronized (appendLock) {
+                end = channel.size();
+            }
+            readFrames(channel, end, bookId, loans);
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Loan archive segment is unreadable: " + segment, e);
+        }
+        return loans;
+    }
+
+    // returns where the last whole frame ends, anything after it is a tail torn by a crash mid-append
+    private static long readFrames(FileChannel channel, long end, long bookId, List<ArchivedLoan> loans) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        long position = 0;
+        while (end - position >= FRAME_HEADER_BYTES) {
+            readFully(channel, header.clear(), position);
+            long frameBook = header.flip().getLong();
+            int rows = header.getInt();
+            int length = header.getInt();
+            if (end - position - FRAME_HEADER_BYTES < length) {
+                break;
+            }
+            if (frameBook == bookId) {
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(channel, body, position + FRAME_HEADER_BYTES);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        new GZIPInputStream(new ByteArrayInputStream(body.array()))))) {
+                    for (int i = 0; i < rows; i++) {
+                        loans.add(new ArchivedLoan(in.readLong(), bookId, in.readLong(),
+                                in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+                    }
+                }
+            }
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new EOFException("Loan archive frame is cut short");
+            }
+        }
+    }
+
+    private static Path segmentOf(int month) {
+        return SerializationUtil.getDirectory()
+                .resolve(DIRECTORY_NAME)
+                .resolve(YearMonth.of(month / 12, month % 12 + 1) + SEGMENT_SUFFIX);
+    }
+}
@@ -0,0 +1,268 @@
+package v.yeikovych.ordered;
+
+import v.yeikovych.bag.Book;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.EntityIds;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+// returned loans of one book as parallel primitive columns, a row costs 32 bytes instead of a Loan and its links
+public final class LoanStore implements Serializable {
+
+    static final long NO_MEMBER = 0;
+
+    private long[] ids = new long[0];
+    private long[] memberIds = new long[0];
+    // epoch days
+    private int[] loanDays = new int[0];
+    private int[] dueDays = new int[0];
+    private int[] returnDays = new int[0];
+    private int[] daysLate = new int[0];
+    private int size;
+    // archived rows live on disk, only the months holding them are kept here
+    private int[] archivedMonths = new int[0];
+    private int archivedCount;
+    // every id ever appended, so neither tier hands an id back out after a restore
+    private long highestId;
+
+    public synchronized void append(Loan loan) {
+        throwIfNull(loan, "Loan cannot be null");
+        throwIfFalse(loan::isReturned, "Only returned loans can be compacted");
+        throwIfFalse(() -> !loan.isCompacted(), "Loan is already compacted");
+
+        if (size == ids.length) {
+            grow(Math.max(8, size + (size >> 1)));
+        }
+        Member member = loan.getMember();
+        ids[size] = loan.getId();
+        memberIds[size] = member == null ? NO_MEMBER : member.getId();
+        loanDays[size] = loan.loanDay();
+        dueDays[size] = loan.dueDay();
+        returnDays[size] = loan.returnDay();
+        daysLate[size] = loan.daysLate();
+        size++;
+        highestId = Math.max(highestId, loan.getId());
+    }
+
+    // rows returned before the given epoch day move to the archive, grouped by the month they were returned in
+    public synchronized int archiveBefore(int day, long bookId) {
+        Map<Integer, List<LoanArchive.ArchivedLoan>> byMonth = new TreeMap<>();
+        for (int row = 0; row < size; row++) {
+            if (returnDays[row] < day) {
+                byMonth.computeIfAbsent(LoanArchive.monthOf(returnDays[row]), month -> new ArrayList<>())
+                        .add(new LoanArchive.ArchivedLoan(ids[row], bookId, memberIds[row], loanDays[row],
+                                dueDays[row], returnDays[row], daysLate[row]));
+            }
+        }
+        if (byMonth.isEmpty()) {
+            return 0;
+        }
+        for (Map.Entry<Integer, List<LoanArchive.ArchivedLoan>> entry : byMonth.entrySet()) {
+            LoanArchive.append(entry.getKey(), bookId, entry.getValue());
+        }
+
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (returnDays[row] >= day) {
+                ids[kept] = ids[row];
+                memberIds[kept] = memberIds[row];
+                loanDays[kept] = loanDays[row];
+                dueDays[kept] = dueDays[row];
+                returnDays[kept] = returnDays[row];
+                daysLate[kept] = daysLate[row];
+                kept++;
+            }
+        }
+        int archived = size - kept;
+        size = kept;
+        grow(size);
+        archivedCount += archived;
+        int[] months = Arrays.copyOf(archivedMonths, archivedMonths.length + byMonth.size());
+        int monthCount = archivedMonths.length;
+        for (int month : byMonth.keySet()) {
+            if (Arrays.binarySearch(archivedMonths, month) < 0) {
+                months[monthCount++] = month;
+            }
+        }
+        archivedMonths = Arrays.copyOf(months, monthCount);
+        Arrays.sort(archivedMonths);
+        return archived;
+    }
+
+    // drops rows appended after the given size, for undoing a compaction
+    public synchronized void truncate(int size) {
+        throwIfFalse(() -> !isNegative(size) && size <= this.size, "Cannot truncate to " + size + " rows");
+
+        this.size = size;
+    }
+
+    // gives back the slack left by growing once no more rows are expected for a while
+    public synchronized void trimToSize() {
+        if (size < ids.length) {
+            grow(size);
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getArchivedCount() {
+        return archivedCount;
+    }
+
+    public synchronized long getHighestId() {
+        return highestId;
+    }
+
+    // archived loans stream in a month at a time, compacted rows follow as views and the live loans come last
+    public List<Loan> history(Book book, List<Loan> live) {
+        throwIfNull(book, "Book cannot be null");
+        throwIfNull(live, "Live loans cannot be null");
+
+        Loan[] linked = live.toArray(new Loan[0]);
+        int[] months;
+        int archived;
+        int compacted;
+        long[] compactedIds;
+        synchronized (this) {
+            months = archivedMonths.clone();
+            archived = archivedCount;
+            compacted = size;
+            compactedIds = Arrays.copyOf(ids, size);
+        }
+        Arrays.sort(compactedIds);
+
+        return new AbstractList<>() {
+            // iteration streams the archive, indexing into it reads every segment once and keeps the rows
+            private List<Loan> archivedRows;
+
+            @Override
+            public Loan get(int index) {
+                Objects.checkIndex(index, size());
+                if (index >= archived + compacted) {
+                    return linked[index - archived - compacted];
+                }
+                if (index >= archived) {
+                    return view(index - archived, book);
+                }
+                if (archivedRows == null) {
+                    List<Loan> rows = new ArrayList<>(archived);
+                    archivedLoans().forEachRemaining(rows::add);
+                    archivedRows = rows;
+                }
+                return archivedRows.get(index);
+            }
+
+            @Override
+            public int size() {
+                return archived + compacted + linked.length;
+            }
+
+            @Override
+            public Iterator<Loan> iterator() {
+                Iterator<Loan> rows = archivedLoans();
+                return new Iterator<>() {
+                    private int position = archived;
+
+                    @Override
+                    public boolean hasNext() {
+                        return rows.hasNext() || position < archived + compacted + linked.length;
+                    }
+
+                    @Override
+                    public Loan next() {
+                        if (rows.hasNext()) {
+                            return rows.next();
+                        }
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return get(position++);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Loan loan)) {
+                    return false;
+                }
+                if (Arrays.asList(linked).contains(loan) || Arrays.binarySearch(compactedIds, loan.getId()) >= 0) {
+                    return true;
+                }
+                return super.contains(o);
+            }
+
+            // a segment is read and closed before its loans are handed out, so abandoning the iterator leaks nothing
+            private Iterator<Loan> archivedLoans() {
+                return new Iterator<>() {
+                    private int month;
+                    private Iterator<LoanArchive.ArchivedLoan> segment = Collections.emptyIterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!segment.hasNext() && month < months.length) {
+                            segment = LoanArchive.read(months[month++], book.getId()).stream()
+                                    // rows archived just before a crash can still be compacted in the last snapshot
+                                    .filter(row -> Arrays.binarySearch(compactedIds, row.id()) < 0)
+                                    .iterator();
+                        }
+                        return segment.hasNext();
+                    }
+
+                    @Override
+                    public Loan next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return segment.next().view(book);
+                    }
+                };
+            }
+        };
+    }
+
+    // members are looked up by id, so a member deleted since the compaction reads as null
+    public synchronized Loan view(int row, Book book) {
+        throwIfFalse(() -> row >= 0 && row < size, "No loan row " + row);
+
+        Member member = memberIds[row] == NO_MEMBER ? null : EntityIds.find(memberIds[row], Member.class);
+        return Loan.compacted(ids[row], member, book, loanDays[row], dueDays[row], returnDays[row], daysLate[row]);
+    }
+
+    public synchronized int indexOf(long loanId) {
+        for (int row = 0; row < size; row++) {
+            if (ids[row] == loanId) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized double getTotalLateFees() {
+        long days = 0;
+        for (int row = 0; row < size; row++) {
+            days += daysLate[row];
+        }
+        return Loan.lateFeeFor(days);
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        memberIds = Arrays.copyOf(memberIds, capacity);
+        loanDays = Arrays.copyOf(loanDays, capacity);
+        dueDays = Arrays.copyOf(dueDays, capacity);
+        returnDays = Arrays.copyOf(returnDays, capacity);
+        daysLate = Arrays.copyOf(daysLate, capacity);
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+}
@@ -0,0 +1,89 @@
+package v.yeikovych.ordered;
+
+import v.yeikovych.util.SerializationUtil;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+public class OverdueSweeper implements AutoCloseable {
+
+    public record SweepResult(LocalDate sweptAt, int newlyOverdue, double assessedFees) {
+    }
+
+    private final Clock clock;
+    private LocalDate lastSweep;
+    private ScheduledExecutorService scheduler;
+
+    public OverdueSweeper(Clock clock) {
+        throwIfNull(clock, "Clock cannot be null");
+        this.clock = clock;
+    }
+
+    public SweepResult sweep() {
+        return sweep(LocalDate.now(clock));
+    }
+
+    public synchronized SweepResult sweep(LocalDate today) {
+        throwIfNull(today, "Sweep date cannot be null");
+
+        // loans already swept have left the index, so this only sees loans that fell due since the previous sweep
+        List<Loan> due = Loan.openLoans().pollDueBefore(today.toEpochDay());
+        double fees = 0;
+        for (Loan loan : due) {
+            loan.checkIfOverdue(today);
+            fees += loan.getLateFee();
+        }
+
+        lastSweep = today;
+        if (!due.isEmpty()) {
+            SerializationUtil.writeExtent(Loan.class);
+        }
+        return new SweepResult(today, due.size(), fees);
+    }
+
+    public synchronized LocalDate getLastSweep() {
+        return lastSweep;
+    }
+
+    public static int openLoanCount() {
+        return Loan.openLoans().size();
+    }
+
+    public synchronized void start(Duration interval) {
+        throwIfNull(interval, "Interval cannot be null");
+        throwIfFalse(() -> !interval.isNegative() && !interval.isZero(), "Interval must be positive");
+        throwIfFalse(() -> scheduler == null, "Sweeper is already running");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "overdue-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.max(1, interval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::scheduledSweep, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // a scheduled run that throws is never run again, so a failure is logged and the next run tries anew
+    private void scheduledSweep() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            System.out.println("Overdue sweep failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
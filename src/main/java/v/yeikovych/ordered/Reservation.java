@@ -1,50 +1,129 @@
 package v.yeikovych.ordered;
 
-
 import v.yeikovych.bag.Book;
 import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.EntityIds;
+import v.yeikovych.util.Extent;
+import v.yeikovych.util.ExtentIndex;
+import v.yeikovych.util.Restorable;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
-public class Reservation {
+public class Reservation implements Extent, Restorable {
+    public static final Comparator<Reservation> RESERVATION_DATE_ORDER = new ReservationDateOrder();
+    private static final AtomicLong sequenceGenerator = new AtomicLong();
+    private static final DueDateIndex<Reservation> pendingByExpiration = new DueDateIndex<>(Reservation::getExpirationDate);
+
+    private static List<Reservation> extent = Collections.synchronizedList(new ArrayList<>());
+    private static final ExtentIndex<Reservation> idIndex = EntityIds.indexFor(Reservation.class);
+
+    static {
+        SerializationUtil.registerResetListener(pendingByExpiration::clear);
+        SerializationUtil.registerExtent(extent, Reservation.class);
+        SerializationUtil.registerIndex(Reservation.class, idIndex);
+    }
+
+    // unique
+    private final long id = EntityIds.next();
+
     private LocalDate reservationDate;
     private LocalDate expirationDate;
-    private ReservationStatus status;
+    private volatile ReservationStatus status;
+
+    private volatile Member member;
+    private volatile Book book;
 
-    private Member member;
-    private Book book;
+    // tie-breaker for reservations placed on the same day
+    private final long sequence = sequenceGenerator.incrementAndGet();
+
+    // binary snapshots restore fields directly
+    private Reservation() {
+    }
 
     public Reservation(Member member, Book book, LocalDate reservationDate, LocalDate expirationDate) {
+        throwIfNull(member, "Member cannot be null");
+        throwIfNull(book, "Book cannot be null");
         throwIfNull(reservationDate, "Reservation date cannot be null");
         throwIfNull(expirationDate, "Expiration date cannot be null");
         throwIfFalse(() -> !expirationDate.isBefore(reservationDate),
                 "Expiration date cannot be before reservation date");
 
-        setMember(member);
-        setBook(book);
         this.reservationDate = reservationDate;
         this.expirationDate = expirationDate;
         this.status = ReservationStatus.PENDING;
+        setMember(member);
+        setBook(book);
+        idIndex.insert(this);
+        extent.add(this);
+        Transaction.onRollback(this, this::removeFromExtent);
+        SerializationUtil.writeExtent(Reservation.class);
     }
 
     public void checkIfExpired() {
-        if (status == ReservationStatus.PENDING && LocalDate.now().isAfter(expirationDate)) {
-            this.status = ReservationStatus.EXPIRED;
-        }
+        checkIfExpired(LocalDate.now());
+    }
+
+    public void checkIfExpired(LocalDate asOf) {
+        throwIfNull(asOf, "Date cannot be null");
+
+        StripedLocks.runResolved(() -> new Object[]{this, this.book}, () -> {
+            if (status == ReservationStatus.PENDING && asOf.isAfter(expirationDate)) {
+                changeStatus(ReservationStatus.EXPIRED);
+            }
+        });
     }
 
     public void fulfill() {
-        throwIfFalse(() -> status == ReservationStatus.PENDING,
-                "Only pending reservations can be fulfilled");
-        this.status = ReservationStatus.FULFILLED;
+        StripedLocks.runResolved(() -> new Object[]{this, this.book}, () -> {
+            throwIfFalse(() -> status == ReservationStatus.PENDING,
+                    "Only pending reservations can be fulfilled");
+            changeStatus(ReservationStatus.FULFILLED);
+        });
     }
 
     public void cancel() {
-        throwIfFalse(() -> status == ReservationStatus.PENDING,
-                "Only pending reservations can be canceled");
-        this.status = ReservationStatus.CANCELED;
+        StripedLocks.runResolved(() -> new Object[]{this, this.book}, () -> {
+            throwIfFalse(() -> status == ReservationStatus.PENDING,
+                    "Only pending reservations can be canceled");
+            changeStatus(ReservationStatus.CANCELED);
+        });
+    }
+
+    private void changeStatus(ReservationStatus status) {
+        ReservationStatus previous = this.status;
+        this.status = status;
+        Transaction.onRollback(this, () -> {
+            this.status = previous;
+            if (previous == ReservationStatus.PENDING && book != null) {
+                pendingByExpiration.add(this);
+            }
+        });
+        if (status != ReservationStatus.PENDING) {
+            pendingByExpiration.remove(this);
+        }
+        SerializationUtil.writeExtent(Reservation.class);
+        if (book != null) {
+            book.reservationStatusChanged(this);
+        }
+    }
+
+    @Override
+    public long getId() {
+        return id;
     }
 
     public LocalDate getReservationDate() {
@@ -68,30 +147,115 @@ public class Reservation {
     }
 
     public void setMember(Member member) {
-        throwIfNull(member, "Member cannot be null");
+        StripedLocks.runResolved(() -> new Object[]{this, this.member, member}, () -> {
+            if (this.member != null && this.member != member) {
+                this.member.removeReservation(this);
+            }
 
-        if (this.member != null && this.member != member) {
-            this.member.removeReservation(this);
-        }
+            Member previous = this.member;
+            this.member = member;
+            Transaction.onRollback(this, () -> this.member = previous);
 
-        this.member = member;
+            if (member != null) {
+                member.addReservation(this);
+            }
 
-        if (member != null) {
-            member.addReservation(this);
-        }
+            if (previous != member) {
+                ChangeEvents.updated(this, "member", previous, member);
+            }
+            SerializationUtil.writeExtent(Reservation.class);
+        });
     }
 
     public void setBook(Book book) {
-        throwIfNull(book, "Book cannot be null");
+        StripedLocks.runResolved(() -> new Object[]{this, this.book, book}, () -> {
+            if (this.book != null && this.book != book) {
+                this.book.removeReservation(this);
+            }
+
+            Book previous = this.book;
+            this.book = book;
+            Transaction.onRollback(this, () -> {
+                this.book = previous;
+                if (previous != null && status == ReservationStatus.PENDING) {
+                    pendingByExpiration.add(this);
+                } else {
+                    pendingByExpiration.remove(this);
+                }
+            });
+
+            if (book == null) {
+                pendingByExpiration.remove(this);
+            } else if (status == ReservationStatus.PENDING) {
+                pendingByExpiration.add(this);
+            }
+
+            if (book != null) {
+                book.addReservation(this);
+            }
 
-        if (this.book != null && this.book != book) {
-            this.book.removeReservation(this);
+            if (previous != book) {
+                ChangeEvents.updated(this, "book", previous, book);
+            }
+            SerializationUtil.writeExtent(Reservation.class);
+        });
+    }
+
+    public static List<Reservation> getExtent() {
+        synchronized (extent) {
+            return List.copyOf(extent);
         }
+    }
 
-        this.book = book;
+    public static Reservation findById(long id) {
+        return EntityIds.find(id, Reservation.class);
+    }
 
-        if (book != null) {
-            book.addReservation(this);
+    public void removeFromExtent() {
+        if (extent.remove(this)) {
+            idIndex.remove(this);
+            Transaction.onRollback(this, () -> {
+                idIndex.insert(this);
+                extent.add(this);
+            });
+            SerializationUtil.writeExtent(Reservation.class);
+        }
+    }
+
+    @Override
+    public void afterRestore() {
+        sequenceGenerator.accumulateAndGet(sequence, Math::max);
+        EntityIds.restored(id);
+        if (book != null && status == ReservationStatus.PENDING) {
+            pendingByExpiration.add(this);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        afterRestore();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        return o instanceof Reservation reservation && id == reservation.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
+    static DueDateIndex<Reservation> pendingByExpiration() {
+        return pendingByExpiration;
+    }
+
+    private static class ReservationDateOrder implements Comparator<Reservation>, Serializable {
+        @Override
+        public int compare(Reservation a, Reservation b) {
+            int byDate = a.reservationDate.compareTo(b.reservationDate);
+            return byDate != 0 ? byDate : Long.compare(a.sequence, b.sequence);
         }
     }
 }
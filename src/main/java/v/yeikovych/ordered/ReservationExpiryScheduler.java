@@ -0,0 +1,89 @@
+package v.yeikovych.ordered;
+
+import v.yeikovych.util.SerializationUtil;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+public class ReservationExpiryScheduler implements AutoCloseable {
+
+    public record TickResult(LocalDate tickedAt, int expired, boolean backlogRemaining) {
+    }
+
+    private final Clock clock;
+    private final int maxExpiriesPerTick;
+    private ScheduledExecutorService scheduler;
+
+    public ReservationExpiryScheduler(Clock clock, int maxExpiriesPerTick) {
+        throwIfNull(clock, "Clock cannot be null");
+        throwIfFalse(() -> maxExpiriesPerTick > 0, "Max expiries per tick must be positive");
+        this.clock = clock;
+        this.maxExpiriesPerTick = maxExpiriesPerTick;
+    }
+
+    public TickResult tick() {
+        return tick(LocalDate.now(clock));
+    }
+
+    public synchronized TickResult tick(LocalDate today) {
+        throwIfNull(today, "Tick date cannot be null");
+
+        // only pending reservations are indexed, fulfilled and canceled ones leave as their status changes
+        DueDateIndex<Reservation> index = Reservation.pendingByExpiration();
+        List<Reservation> due = index.pollDueBefore(today.toEpochDay(), maxExpiriesPerTick);
+        // each expiry touches a reservation and its book, the shards are written once when the batch is done
+        int expired = SerializationUtil.deferWrites(() -> {
+            int count = 0;
+            for (Reservation reservation : due) {
+                reservation.checkIfExpired(today);
+                if (reservation.getStatus() == ReservationStatus.EXPIRED) {
+                    count++;
+                }
+            }
+            return count;
+        });
+        return new TickResult(today, expired, index.hasDueBefore(today.toEpochDay()));
+    }
+
+    public static int pendingCount() {
+        return Reservation.pendingByExpiration().size();
+    }
+
+    public synchronized void start(Duration interval) {
+        throwIfNull(interval, "Interval cannot be null");
+        throwIfFalse(() -> !interval.isNegative() && !interval.isZero(), "Interval must be positive");
+        throwIfFalse(() -> scheduler == null, "Scheduler is already running");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "reservation-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.max(1, interval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::scheduledTick, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // a scheduled run that throws is never run again, so a failure is logged and the next run tries anew
+    private void scheduledTick() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            System.out.println("Reservation expiry tick failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
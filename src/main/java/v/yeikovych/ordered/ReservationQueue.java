@@ -0,0 +1,56 @@
+package v.yeikovych.ordered;
+
+import v.yeikovych.util.IndexedSortedSet;
+
+import java.io.Serializable;
+import java.util.NavigableSet;
+
+public class ReservationQueue implements Serializable {
+    // ordered
+    private final IndexedSortedSet<Reservation> reservations = new IndexedSortedSet<>(Reservation.RESERVATION_DATE_ORDER);
+    // waitlist, only PENDING reservations
+    private final IndexedSortedSet<Reservation> pending = new IndexedSortedSet<>(Reservation.RESERVATION_DATE_ORDER);
+
+    public boolean add(Reservation reservation) {
+        if (!reservations.add(reservation)) {
+            return false;
+        }
+        if (reservation.getStatus() == ReservationStatus.PENDING) {
+            pending.add(reservation);
+        }
+        return true;
+    }
+
+    public boolean remove(Reservation reservation) {
+        pending.remove(reservation);
+        return reservations.remove(reservation);
+    }
+
+    public boolean contains(Reservation reservation) {
+        return reservations.contains(reservation);
+    }
+
+    public void statusChanged(Reservation reservation) {
+        if (reservation.getStatus() != ReservationStatus.PENDING) {
+            pending.remove(reservation);
+        } else if (reservations.contains(reservation)) {
+            pending.add(reservation);
+        }
+    }
+
+    public Reservation peekNextPending() {
+        return pending.first();
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public NavigableSet<Reservation> view() {
+        return reservations.view();
+    }
+
+    public NavigableSet<Reservation> pendingView() {
+        return pending.view();
+    }
+}
@@ -1,17 +1,26 @@
 package v.yeikovych.staticc;
 
+import v.yeikovych.util.EntityIds;
 import v.yeikovych.util.Extent;
+import v.yeikovych.util.ExtentIndex;
+import v.yeikovych.util.Restorable;
 import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
+import v.yeikovych.util.UniqueIndex;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
-public abstract class Person implements Extent {
+public abstract class Person implements Extent, Restorable {
+    // unique
+    private final long id = EntityIds.next();
     private String firstName;
     private String lastName;
     // static
@@ -21,7 +30,20 @@ public abstract class Person implements Extent {
     // static
     private String phoneNumber;
 
-    private static List<Person> extent = new ArrayList<>();
+    private static List<Person> extent = Collections.synchronizedList(new ArrayList<>());
+    private static final UniqueIndex<String, Person> emailIndex =
+            new UniqueIndex<>(Person::getEmail, "Email already in use: ");
+    private static final ExtentIndex<Person> idIndex = EntityIds.indexFor(Person.class);
+
+    static {
+        SerializationUtil.registerExtent(extent, Person.class);
+        SerializationUtil.registerIndex(Person.class, emailIndex);
+        SerializationUtil.registerIndex(Person.class, idIndex);
+    }
+
+    // binary snapshots restore fields directly
+    protected Person() {
+    }
 
     protected Person(String firstName, String lastName, LocalDate dateOfBirth, String email, String phoneNumber) {
         setFirstName(firstName);
@@ -29,45 +51,56 @@ public abstract class Person implements Extent {
         setDateOfBirth(dateOfBirth);
         setEmail(email);
         setPhoneNumber(phoneNumber);
-        SerializationUtil.registerExtent(extent, Person.class);
-        SerializationUtil.writeExtent();
+        emailIndex.insert(this);
+        idIndex.insert(this);
+        extent.add(this);
+        Transaction.onRollback(this, this::removeFromExtent);
+        SerializationUtil.writeExtent(Person.class);
     }
 
     public void setPhoneNumber(String phoneNumber) {
         throwIfFalse(() -> isValidPhoneNumber(phoneNumber), "Phone number is not valid");
+        String previous = this.phoneNumber;
         this.phoneNumber = phoneNumber;
-        SerializationUtil.writeExtent();
+        SerializationUtil.recordChange(this, "phoneNumber", previous, phoneNumber);
     }
 
     public void setEmail(String email) {
         throwIfFalse(() -> isValidEmail(email), "Email is not valid");
 
-        for (Person person : extent) {
-            if (person != this && email.equals(person.getEmail())) {
-                throw new IllegalArgumentException("Email already in use: " + email);
-            }
-        }
-
-        this.email = email;
-        SerializationUtil.writeExtent();
+        // the index moves the entry from the old address to the new one, so the field must not change in between
+        StripedLocks.run(() -> {
+            emailIndex.update(this.email, email, this);
+            String previous = this.email;
+            this.email = email;
+            SerializationUtil.recordChange(this, "email", previous, email);
+        }, this);
     }
 
     public void setFirstName(String firstName) {
         throwIfFalse(() -> isValidName(firstName), "First name is not valid");
+        String previous = this.firstName;
         this.firstName = firstName;
-        SerializationUtil.writeExtent();
+        SerializationUtil.recordChange(this, "firstName", previous, firstName);
     }
 
     public void setLastName(String lastName) {
         throwIfFalse(() -> isValidName(lastName), "Last name is not valid");
+        String previous = this.lastName;
         this.lastName = lastName;
-        SerializationUtil.writeExtent();
+        SerializationUtil.recordChange(this, "lastName", previous, lastName);
     }
 
     public void setDateOfBirth(LocalDate dateOfBirth) {
         throwIfFalse(() -> isValidDateOfBirth(dateOfBirth), "Date of birth is not valid");
+        LocalDate previous = this.dateOfBirth;
         this.dateOfBirth = dateOfBirth;
-        SerializationUtil.writeExtent();
+        SerializationUtil.recordChange(this, "dateOfBirth", previous, dateOfBirth);
+    }
+
+    @Override
+    public long getId() {
+        return id;
     }
 
     public String getFirstName() {
@@ -91,19 +124,51 @@ public abstract class Person implements Extent {
     }
 
     public static List<Person> getExtent() {
-        return Collections.unmodifiableList(extent);
+        synchronized (extent) {
+            return List.copyOf(extent);
+        }
+    }
+
+    public static Person findById(long id) {
+        return EntityIds.find(id, Person.class);
+    }
+
+    public static Person findByEmail(String email) {
+        return emailIndex.find(email);
+    }
+
+    public void removeFromExtent() {
+        if (extent.remove(this)) {
+            emailIndex.remove(this);
+            idIndex.remove(this);
+            Transaction.onRollback(this, () -> {
+                emailIndex.insert(this);
+                idIndex.insert(this);
+                extent.add(this);
+            });
+            SerializationUtil.writeExtent(Person.class);
+        }
+    }
+
+    @Override
+    public void afterRestore() {
+        EntityIds.restored(id);
+    }
+
+    // subclass fields are not read yet, so only this class's part of afterRestore runs here
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        EntityIds.restored(id);
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Person person = (Person) o;
-        return Objects.equals(email, person.email);
+        return o instanceof Person person && id == person.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(email);
+        return Long.hashCode(id);
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,43 @@
 package v.yeikovych.subset;
 
 import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.CapacityGate;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.EntityIds;
+import v.yeikovych.util.Extent;
+import v.yeikovych.util.ExtentIndex;
+import v.yeikovych.util.OrdinalSet;
+import v.yeikovych.util.Ordinals;
+import v.yeikovych.util.Restorable;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Objects;
+import java.util.List;
 import java.util.Set;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
-public class Event {
+public class Event implements Extent, Restorable {
+    private static List<Event> extent = Collections.synchronizedList(new ArrayList<>());
+    private static final ExtentIndex<Event> idIndex = EntityIds.indexFor(Event.class);
+    private static final Ordinals<Event> ordinals = new Ordinals<>(Event.class, event -> event.ordinal);
+
+    static {
+        SerializationUtil.registerExtent(extent, Event.class);
+        SerializationUtil.registerIndex(Event.class, idIndex);
+    }
+
+    // unique
+    private final long id = EntityIds.next();
+    // dense, members keep their events in bitsets
+    private final int ordinal = ordinals.next();
+
     private String eventName;
     // custom
     private LocalDateTime startTime;
@@ -20,9 +47,15 @@ public class Event {
     private int maxAttendees;
 
     // Superset
-    private Set<Member> registeredMembers = new HashSet<>();
+    private OrdinalSet<Member> registeredMembers = new OrdinalSet<>(Member.class);
     // Subset
-    private Set<Member> attendedMembers = new HashSet<>();
+    private OrdinalSet<Member> attendedMembers = new OrdinalSet<>(Member.class);
+    // derived from maxAttendees and registeredMembers
+    private transient CapacityGate seats = new CapacityGate();
+
+    // binary snapshots restore fields directly
+    private Event() {
+    }
 
     public Event(String eventName, LocalDateTime startTime, LocalDateTime endTime,
                  String location, int maxAttendees) {
@@ -31,44 +64,80 @@ public class Event {
         setEndTime(endTime);
         setLocation(location);
         setMaxAttendees(maxAttendees);
+        idIndex.insert(this);
+        ordinals.register(this);
+        extent.add(this);
+        Transaction.onRollback(this, this::removeFromExtent);
+        SerializationUtil.writeExtent(Event.class);
     }
 
     public void registerMember(Member member) {
         throwIfFalse(() -> member != null, "Member cannot be null");
-        throwIfFalse(() -> registeredMembers.size() >= maxAttendees, "Event has reached maximum capacity");
 
-        if (!registeredMembers.contains(member)) {
-            registeredMembers.add(member);
-            member.registerForEvent(this);
-        }
+        // only the member is locked, concurrent sign-ups for one event meet at the seat counter
+        StripedLocks.run(() -> {
+            if (!registeredMembers.contains(member)) {
+                throwIfFalse(seats::tryReserve, "Event has reached maximum capacity");
+                registeredMembers.add(member);
+                Transaction.onRollback(this, () -> {
+                    registeredMembers.remove(member);
+                    seats.release();
+                });
+                member.registerForEvent(this);
+                ChangeEvents.linked(this, "registeredMembers", member);
+                SerializationUtil.writeExtent(Event.class);
+            }
+        }, member);
     }
 
     public void markMemberAttended(Member member) {
         throwIfNull(member, "Member cannot be null");
-        throwIfFalse(() -> registeredMembers.contains(member), "Member must be registered for the event before being marked as attended");
 
-        if (!attendedMembers.contains(member)) {
-            attendedMembers.add(member);
-            member.addAttendedEvent(this);
-        }
+        StripedLocks.run(() -> {
+            throwIfFalse(() -> registeredMembers.contains(member), "Member must be registered for the event before being marked as attended");
+
+            if (!attendedMembers.contains(member)) {
+                attendedMembers.add(member);
+                Transaction.onRollback(this, () -> attendedMembers.remove(member));
+                member.addAttendedEvent(this);
+                ChangeEvents.linked(this, "attendedMembers", member);
+                SerializationUtil.writeExtent(Event.class);
+            }
+        }, this, member);
     }
 
     public void unregisterMember(Member member) {
         throwIfFalse(() -> member != null, "Member cannot be null");
 
-        if (registeredMembers.contains(member)) {
-            registeredMembers.remove(member);
-            member.unregisterFromEvent(this);
-        }
+        StripedLocks.run(() -> {
+            if (registeredMembers.contains(member)) {
+                // attended stays a subset of registered
+                unmarkMemberAttended(member);
+                registeredMembers.remove(member);
+                seats.release();
+                Transaction.onRollback(this, () -> {
+                    registeredMembers.add(member);
+                    seats.occupy();
+                });
+                member.unregisterFromEvent(this);
+                ChangeEvents.unlinked(this, "registeredMembers", member);
+                SerializationUtil.writeExtent(Event.class);
+            }
+        }, this, member);
     }
 
     public void unmarkMemberAttended(Member member) {
         throwIfNull(member, "Member cannot be null");
 
-        if (attendedMembers.contains(member)) {
-            attendedMembers.remove(member);
-            member.removeAttendedEvent(this);
-        }
+        StripedLocks.run(() -> {
+            if (attendedMembers.contains(member)) {
+                attendedMembers.remove(member);
+                Transaction.onRollback(this, () -> attendedMembers.add(member));
+                member.removeAttendedEvent(this);
+                ChangeEvents.unlinked(this, "attendedMembers", member);
+                SerializationUtil.writeExtent(Event.class);
+            }
+        }, this, member);
     }
 
     public String getEventName() {
@@ -77,7 +146,9 @@ public class Event {
 
     public void setEventName(String eventName) {
         throwIfFalse(() -> isValidString(eventName), "Event name must be a string");
+        String previous = this.eventName;
         this.eventName = eventName;
+        SerializationUtil.recordChange(this, "eventName", previous, eventName);
     }
 
     public LocalDateTime getStartTime() {
@@ -86,9 +157,12 @@ public class Event {
 
     public void setStartTime(LocalDateTime startTime) {
         throwIfFalse(() -> startTime != null, "Start time cannot be null");
-        throwIfFalse(() -> startTime.isBefore(endTime), "Start time must be before end time");
+        throwIfFalse(() -> this.endTime == null || startTime.isBefore(this.endTime),
+                "Start time must be before end time");
 
+        LocalDateTime previous = this.startTime;
         this.startTime = startTime;
+        SerializationUtil.recordChange(this, "startTime", previous, startTime);
     }
 
     public LocalDateTime getEndTime() {
@@ -97,9 +171,12 @@ public class Event {
 
     public void setEndTime(LocalDateTime endTime) {
         throwIfFalse(() -> endTime != null, "End time cannot be null");
-        throwIfFalse(() -> endTime.isAfter(startTime), "End time must be after start time");
+        throwIfFalse(() -> this.startTime == null || endTime.isAfter(this.startTime),
+                "End time must be after start time");
 
+        LocalDateTime previous = this.endTime;
         this.endTime = endTime;
+        SerializationUtil.recordChange(this, "endTime", previous, endTime);
     }
 
     public String getLocation() {
@@ -108,7 +185,9 @@ public class Event {
 
     public void setLocation(String location) {
         throwIfFalse(() -> isValidString(location), "Location must be a string");
+        String previous = this.location;
         this.location = location;
+        SerializationUtil.recordChange(this, "location", previous, location);
     }
 
     public int getMaxAttendees() {
@@ -117,30 +196,89 @@ public class Event {
 
     public void setMaxAttendees(int maxAttendees) {
         throwIfFalse(() -> isPositive(maxAttendees), "Maximum attendees must be positive");
-        throwIfFalse(() -> maxAttendees >= this.registeredMembers.size(),
-                "Cannot reduce maximum attendees below current registration count");
 
-        this.maxAttendees = maxAttendees;
+        StripedLocks.run(() -> {
+            throwIfFalse(() -> seats.tryResize(maxAttendees),
+                    "Cannot reduce maximum attendees below current registration count");
+
+            int previous = this.maxAttendees;
+            this.maxAttendees = maxAttendees;
+            Transaction.onRollback(this, () -> seats.resize(previous));
+            SerializationUtil.recordChange(this, "maxAttendees", previous, maxAttendees);
+        }, this);
     }
 
     public Set<Member> getRegisteredMembers() {
         return Collections.unmodifiableSet(registeredMembers);
     }
 
+    public Set<Member> getAttendedMembers() {
+        return Collections.unmodifiableSet(attendedMembers);
+    }
+
+    public boolean isAttendanceConsistent() {
+        return registeredMembers.containsAll(attendedMembers);
+    }
+
+    // members who attended every one of the given events, intersected a word at a time
+    public static Set<Member> attendedAll(Event first, Event second, Event... others) {
+        throwIfNull(first, "Event cannot be null");
+        throwIfNull(second, "Event cannot be null");
+
+        OrdinalSet<Member> shared = first.attendedMembers.intersection(second.attendedMembers);
+        for (Event other : others) {
+            throwIfNull(other, "Event cannot be null");
+            shared = shared.intersection(other.attendedMembers);
+        }
+        return Collections.unmodifiableSet(shared);
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public static List<Event> getExtent() {
+        synchronized (extent) {
+            return List.copyOf(extent);
+        }
+    }
+
+    public static Event findById(long id) {
+        return EntityIds.find(id, Event.class);
+    }
+
+    public void removeFromExtent() {
+        if (extent.removeIf(entity -> entity == this)) {
+            idIndex.remove(this);
+            Transaction.onRollback(this, () -> {
+                idIndex.insert(this);
+                extent.add(this);
+            });
+            SerializationUtil.writeExtent(Event.class);
+        }
+    }
+
+    @Override
+    public void afterRestore() {
+        EntityIds.restored(id);
+        ordinals.register(this);
+        seats = new CapacityGate(maxAttendees, registeredMembers.size());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        afterRestore();
+    }
+
     @Override
     public boolean equals(Object o) {
-        if (o == null || getClass() != o.getClass()) return false;
-        Event event = (Event) o;
-        return maxAttendees == event.maxAttendees
-                && Objects.equals(eventName, event.eventName)
-                && Objects.equals(startTime, event.startTime)
-                && Objects.equals(endTime, event.endTime)
-                && Objects.equals(location, event.location)
-                && Objects.equals(registeredMembers, event.registeredMembers);
+        if (this == o) return true;
+        return o instanceof Event event && id == event.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(eventName, startTime, endTime, location, maxAttendees, registeredMembers);
+        return Long.hashCode(id);
     }
 }
@@ -0,0 +1,631 @@
+package v.yeikovych.util;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class BinarySnapshotCodec implements SnapshotCodec {
+
+    static final int MAGIC = 0x4D415342; // "MASB"
+    // 2: fixed-width date-times, collections last in each record, offset tables in a trailer
+    // 3: references into other shards through an import table
+    static final int VERSION = 4;
+    static final int NULL_REF = -1;
+    static final int NULL_DAY = Integer.MIN_VALUE;
+
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte DOUBLE = 3;
+    static final byte BOOLEAN = 4;
+    static final byte STRING = 5;
+    static final byte DATE = 6;
+    static final byte DATE_TIME = 7;
+    static final byte ENUM = 8;
+    static final byte REFERENCE = 9;
+    static final byte COLLECTION = 10;
+    static final byte INT_ARRAY = 11;
+    static final byte LONG_ARRAY = 12;
+
+    private static final Map<Class<?>, Layout> layouts = new ConcurrentHashMap<>();
+
+    record Slot(Field field, byte kind) {
+    }
+
+    // persistent fields of a class and its superclasses, sorted so the record layout is stable
+    private record Layout(List<Slot> slots, Constructor<?> constructor) {
+    }
+
+    private record PendingFill(Object owner, Field field, int[] ids) {
+    }
+
+    private record PendingReference(Object owner, Field field, int id) {
+    }
+
+    // where an object written by another shard lives
+    record ForeignRef(String shard, int id) {
+    }
+
+    // a shard read on its own, references into other shards stay unresolved until link
+    record ShardImage(Object[] objects, Map<Class<? extends Extent>, List<Extent>> extents, List<PendingFill> fills,
+                      List<PendingReference> references, String[] importShards, int[] importIds) {
+    }
+
+    @Override
+    public void write(Map<Class<? extends Extent>, List<? extends Extent>> extents, OutputStream out) throws IOException {
+        Map<Class<? extends Extent>, List<Extent>> roots = new LinkedHashMap<>();
+        for (Map.Entry<Class<? extends Extent>, List<? extends Extent>> entry : extents.entrySet()) {
+            synchronized (entry.getValue()) {
+                roots.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
+
+        // object ids follow discovery order, every reachable object gets exactly one record
+        IdentityHashMap<Object, Integer> ids = new IdentityHashMap<>();
+        List<Object> objects = new ArrayList<>();
+        for (List<Extent> extent : roots.values()) {
+            for (Extent entity : extent) {
+                discover(entity, ids, objects);
+            }
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            forEachReferenced(objects.get(i), value -> discover(value, ids, objects));
+        }
+
+        writeShard(roots, objects, ids, value -> null, out);
+    }
+
+    void writeShard(Map<Class<? extends Extent>, List<Extent>> roots, List<Object> objects, Map<Object, Integer> ids,
+                    Function<Object, ForeignRef> foreign, OutputStream out) throws IOException {
+        Map<Class<?>, Integer> classIds = new LinkedHashMap<>();
+        for (Object object : objects) {
+            classIds.putIfAbsent(object.getClass(), classIds.size());
+        }
+        for (Class<? extends Extent> extentClass : roots.keySet()) {
+            classIds.putIfAbsent(extentClass, classIds.size());
+        }
+
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> stringTable = new ArrayList<>();
+        Imports imports = new Imports(ids, foreign);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(body);
+
+        int[] recordOffsets = new int[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            Object object = objects.get(i);
+            recordOffsets[i] = records.size();
+            for (Slot slot : layoutOf(object.getClass()).slots()) {
+                writeValue(records, slot, get(slot.field(), object), imports, strings, stringTable);
+            }
+        }
+        int extentsOffset = records.size();
+        records.writeInt(roots.size());
+        for (Map.Entry<Class<? extends Extent>, List<Extent>> entry : roots.entrySet()) {
+            records.writeInt(classIds.get(entry.getKey()));
+            records.writeInt(entry.getValue().size());
+            for (Extent entity : entry.getValue()) {
+                records.writeInt(ids.get(entity));
+            }
+        }
+        int importsOffset = records.size();
+        records.writeInt(imports.shards.size());
+        for (String shard : imports.shards.keySet()) {
+            records.writeUTF(shard);
+        }
+        records.writeInt(imports.refs.size());
+        for (ForeignRef ref : imports.refs) {
+            records.writeShort(imports.shards.get(ref.shard()));
+            records.writeInt(ref.id());
+        }
+        records.flush();
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+
+        data.writeInt(classIds.size());
+        for (Class<?> type : classIds.keySet()) {
+            data.writeUTF(type.getName());
+            boolean instantiated = !Modifier.isAbstract(type.getModifiers());
+            List<Slot> slots = instantiated ? layoutOf(type).slots() : List.of();
+            data.writeInt(slots.size());
+            for (Slot slot : slots) {
+                data.writeUTF(slot.field().getName());
+                data.writeByte(slot.kind());
+            }
+        }
+
+        int[] stringOffsets = new int[stringTable.size()];
+        data.writeInt(stringTable.size());
+        for (int i = 0; i < stringTable.size(); i++) {
+            stringOffsets[i] = data.size();
+            data.writeUTF(stringTable.get(i));
+        }
+
+        data.writeInt(objects.size());
+        int objectClassesOffset = data.size();
+        for (Object object : objects) {
+            data.writeShort(classIds.get(object.getClass()));
+        }
+        int bodyOffset = data.size();
+        body.writeTo(data);
+
+        // trailer for readers that map the file instead of streaming it
+        int trailerOffset = data.size();
+        data.writeInt(stringOffsets.length);
+        for (int offset : stringOffsets) {
+            data.writeInt(offset);
+        }
+        data.writeInt(recordOffsets.length);
+        data.writeInt(objectClassesOffset);
+        for (int offset : recordOffsets) {
+            data.writeInt(bodyOffset + offset);
+        }
+        data.writeInt(bodyOffset + extentsOffset);
+        data.writeInt(bodyOffset + importsOffset);
+        data.writeLong(trailerOffset);
+        data.flush();
+    }
+
+    @Override
+    public Map<Class<? extends Extent>, List<? extends Extent>> read(InputStream in) throws IOException {
+        return link(Map.of("", readShard(in)));
+    }
+
+    ShardImage readShard(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Not a binary extent snapshot");
+        }
+        int version = data.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new InvalidClassException("Unsupported snapshot version " + version);
+        }
+
+        int classCount = data.readInt();
+        Class<?>[] classes = new Class<?>[classCount];
+        Slot[][] storedLayouts = new Slot[classCount][];
+        for (int i = 0; i < classCount; i++) {
+            classes[i] = classNamed(data.readUTF());
+            int slotCount = data.readInt();
+            storedLayouts[i] = new Slot[slotCount];
+            for (int j = 0; j < slotCount; j++) {
+                String fieldName = data.readUTF();
+                byte kind = data.readByte();
+                // fields that no longer exist are read and dropped, new fields keep their initializers
+                storedLayouts[i][j] = new Slot(matchField(classes[i], fieldName, kind), kind);
+            }
+        }
+
+        String[] strings = new String[data.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = data.readUTF();
+        }
+
+        int objectCount = data.readInt();
+        int[] classOf = new int[objectCount];
+        Object[] objects = new Object[objectCount];
+        for (int i = 0; i < objectCount; i++) {
+            classOf[i] = data.readShort();
+            objects[i] = instantiate(classes[classOf[i]]);
+        }
+
+        List<PendingFill> fills = new ArrayList<>();
+        List<PendingReference> references = new ArrayList<>();
+        for (int i = 0; i < objectCount; i++) {
+            for (Slot slot : storedLayouts[classOf[i]]) {
+                readValue(data, version, slot, objects[i], objects, strings, fills, references);
+            }
+        }
+
+        Map<Class<? extends Extent>, List<Extent>> extents = new HashMap<>();
+        int extentCount = data.readInt();
+        for (int i = 0; i < extentCount; i++) {
+            @SuppressWarnings("unchecked")
+            Class<? extends Extent> extentClass = (Class<? extends Extent>) classes[data.readInt()];
+            int size = data.readInt();
+            List<Extent> extent = Collections.synchronizedList(new ArrayList<>(size));
+            for (int j = 0; j < size; j++) {
+                extent.add((Extent) objects[data.readInt()]);
+            }
+            extents.put(extentClass, extent);
+        }
+
+        String[] importShards = new String[0];
+        int[] importIds = new int[0];
+        if (version >= 3) {
+            String[] shardNames = new String[data.readInt()];
+            for (int i = 0; i < shardNames.length; i++) {
+                shardNames[i] = data.readUTF();
+            }
+            int importCount = data.readInt();
+            importShards = new String[importCount];
+            importIds = new int[importCount];
+            for (int i = 0; i < importCount; i++) {
+                importShards[i] = shardNames[data.readShort()];
+                importIds[i] = data.readInt();
+            }
+        }
+        return new ShardImage(objects, extents, fills, references, importShards, importIds);
+    }
+
+    // shards are read independently, so references between them are resolved once all of them are in memory
+    static Map<Class<? extends Extent>, List<? extends Extent>> link(Map<String, ShardImage> images) throws IOException {
+        Map<Class<? extends Extent>, List<? extends Extent>> extents = new HashMap<>();
+        List<PendingFill> fills = new ArrayList<>();
+        Map<PendingFill, ShardImage> fillImages = new IdentityHashMap<>();
+        for (ShardImage image : images.values()) {
+            extents.putAll(image.extents());
+            for (PendingReference reference : image.references()) {
+                set(reference.field(), reference.owner(), resolve(images, image, reference.id()));
+            }
+            for (PendingFill fill : image.fills()) {
+                fills.add(fill);
+                fillImages.put(fill, image);
+            }
+        }
+
+        for (PendingFill fill : fills) {
+            fill(fill, images, fillImages.get(fill));
+        }
+        for (ShardImage image : images.values()) {
+            for (Object object : image.objects()) {
+                if (object instanceof Restorable restorable) {
+                    restorable.afterRestore();
+                }
+            }
+        }
+        return extents;
+    }
+
+    @Override
+    public boolean recognizes(byte[] header) {
+        return header.length >= 4
+                && ((header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | header[3] & 0xFF) == MAGIC;
+    }
+
+    private static void discover(Object object, IdentityHashMap<Object, Integer> ids, List<Object> objects) {
+        if (ids.putIfAbsent(object, objects.size()) == null) {
+            objects.add(object);
+        }
+    }
+
+    static void forEachReferenced(Object object, Consumer<Object> action) throws IOException {
+        for (Slot slot : layoutOf(object.getClass()).slots()) {
+            if (slot.kind() != REFERENCE && slot.kind() != COLLECTION) {
+                continue;
+            }
+            Object value = get(slot.field(), object);
+            if (value == null) {
+                continue;
+            }
+            if (slot.kind() == REFERENCE) {
+                action.accept(value);
+            } else {
+                for (Object element : (Collection<?>) value) {
+                    action.accept(element);
+                }
+            }
+        }
+    }
+
+    private static Object resolve(Map<String, ShardImage> images, ShardImage image, int id) throws IOException {
+        if (id >= 0) {
+            return image.objects()[id];
+        }
+        int imported = -2 - id;
+        ShardImage target = images.get(image.importShards()[imported]);
+        if (target == null) {
+            throw new InvalidObjectException("Missing shard " + image.importShards()[imported]);
+        }
+        return target.objects()[image.importIds()[imported]];
+    }
+
+    // local ids are written as they are, objects owned by other shards as -2 minus their import index
+    private static final class Imports {
+        private final Map<Object, Integer> ids;
+        private final Function<Object, ForeignRef> foreign;
+        private final Map<Object, Integer> imported = new IdentityHashMap<>();
+        private final Map<String, Integer> shards = new LinkedHashMap<>();
+        private final List<ForeignRef> refs = new ArrayList<>();
+
+        private Imports(Map<Object, Integer> ids, Function<Object, ForeignRef> foreign) {
+            this.ids = ids;
+            this.foreign = foreign;
+        }
+
+        private int idOf(Object value) throws IOException {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            Integer index = imported.get(value);
+            if (index == null) {
+                ForeignRef ref = foreign.apply(value);
+                if (ref == null) {
+                    throw new TornSnapshotException(value);
+                }
+                shards.putIfAbsent(ref.shard(), shards.size());
+                index = refs.size();
+                refs.add(ref);
+                imported.put(value, index);
+            }
+            return -2 - index;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Slot slot, Object value, Imports ids,
+                                   Map<String, Integer> strings, List<String> stringTable) throws IOException {
+        switch (slot.kind()) {
+            case INT -> out.writeInt((Integer) value);
+            case LONG -> out.writeLong((Long) value);
+            case DOUBLE -> out.writeDouble((Double) value);
+            case BOOLEAN -> out.writeBoolean((Boolean) value);
+            case STRING -> {
+                if (value == null) {
+                    out.writeInt(NULL_REF);
+                } else {
+                    Integer index = strings.get(value);
+                    if (index == null) {
+                        index = stringTable.size();
+                        strings.put((String) value, index);
+                        stringTable.add((String) value);
+                    }
+                    out.writeInt(index);
+                }
+            }
+            case DATE -> out.writeInt(value == null ? NULL_DAY : (int) ((LocalDate) value).toEpochDay());
+            case DATE_TIME -> {
+                LocalDateTime dateTime = (LocalDateTime) value;
+                out.writeBoolean(dateTime != null);
+                out.writeLong(dateTime == null ? 0 : dateTime.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(dateTime == null ? 0 : dateTime.getNano());
+            }
+            case ENUM -> out.writeShort(value == null ? NULL_REF : ((Enum<?>) value).ordinal());
+            case REFERENCE -> out.writeInt(value == null ? NULL_REF : ids.idOf(value));
+            case COLLECTION -> {
+                if (value == null) {
+                    out.writeInt(NULL_REF);
+                } else {
+                    Object[] elements = ((Collection<?>) value).toArray();
+                    out.writeInt(elements.length);
+                    for (Object element : elements) {
+                        out.writeInt(ids.idOf(element));
+                    }
+                }
+            }
+            case INT_ARRAY -> {
+                int[] array = (int[]) value;
+                out.writeInt(array == null ? NULL_REF : array.length);
+                for (int i = 0; array != null && i < array.length; i++) {
+                    out.writeInt(array[i]);
+                }
+            }
+            case LONG_ARRAY -> {
+                long[] array = (long[]) value;
+                out.writeInt(array == null ? NULL_REF : array.length);
+                for (int i = 0; array != null && i < array.length; i++) {
+                    out.writeLong(array[i]);
+                }
+            }
+            default -> throw new NotSerializableException("Unknown slot kind " + slot.kind());
+        }
+    }
+
+    private static void readValue(DataInputStream in, int version, Slot slot, Object target, Object[] objects, String[] strings,
+                                  List<PendingFill> fills, List<PendingReference> references) throws IOException {
+        Object value;
+        switch (slot.kind()) {
+            case INT -> value = in.readInt();
+            case LONG -> value = in.readLong();
+            case DOUBLE -> value = in.readDouble();
+            case BOOLEAN -> value = in.readBoolean();
+            case STRING -> {
+                int index = in.readInt();
+                value = index == NULL_REF ? null : strings[index];
+            }
+            case DATE -> {
+                int day = in.readInt();
+                // a date field that became an epoch-day int keeps the raw day, NULL_DAY included
+                value = slot.field() != null && slot.field().getType() == int.class
+                        ? day
+                        : day == NULL_DAY ? null : LocalDate.ofEpochDay(day);
+            }
+            case DATE_TIME -> {
+                boolean present = in.readBoolean();
+                if (present || version >= 2) {
+                    long seconds = in.readLong();
+                    int nanos = in.readInt();
+                    value = present ? LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC) : null;
+                } else {
+                    value = null;
+                }
+            }
+            case ENUM -> {
+                int ordinal = in.readShort();
+                value = ordinal == NULL_REF || slot.field() == null
+                        ? null
+                        : slot.field().getType().getEnumConstants()[ordinal];
+            }
+            case REFERENCE -> {
+                int id = in.readInt();
+                if (id < NULL_REF) {
+                    if (slot.field() != null) {
+                        references.add(new PendingReference(target, slot.field(), id));
+                    }
+                    return;
+                }
+                value = id == NULL_REF ? null : objects[id];
+            }
+            case COLLECTION -> {
+                int size = in.readInt();
+                int[] ids = new int[Math.max(size, 0)];
+                for (int i = 0; i < size; i++) {
+                    ids[i] = in.readInt();
+                }
+                if (slot.field() != null && size != NULL_REF) {
+                    fills.add(new PendingFill(target, slot.field(), ids));
+                }
+                return;
+            }
+            case INT_ARRAY -> {
+                int size = in.readInt();
+                int[] array = size == NULL_REF ? null : new int[size];
+                for (int i = 0; i < size; i++) {
+                    array[i] = in.readInt();
+                }
+                value = array;
+            }
+            case LONG_ARRAY -> {
+                int size = in.readInt();
+                long[] array = size == NULL_REF ? null : new long[size];
+                for (int i = 0; i < size; i++) {
+                    array[i] = in.readLong();
+                }
+                value = array;
+            }
+            default -> throw new StreamCorruptedException("Unknown slot kind " + slot.kind());
+        }
+
+        if (slot.field() != null) {
+            set(slot.field(), target, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void fill(PendingFill fill, Map<String, ShardImage> images, ShardImage image) throws IOException {
+        Collection<Object> collection = (Collection<Object>) get(fill.field(), fill.owner());
+        if (collection == null) {
+            throw new InvalidObjectException("No collection to restore into for " + fill.field());
+        }
+        for (int id : fill.ids()) {
+            collection.add(resolve(images, image, id));
+        }
+    }
+
+    // bytes a slot takes in a version 2 record, collections and arrays are variable
+    static int widthOf(byte kind) {
+        return switch (kind) {
+            case BOOLEAN -> 1;
+            case ENUM -> 2;
+            case INT, STRING, DATE, REFERENCE -> 4;
+            case LONG, DOUBLE -> 8;
+            case DATE_TIME -> 13;
+            default -> -1;
+        };
+    }
+
+    // bytes taken by a variable slot holding size elements, after its size prefix
+    static int elementWidthOf(byte kind) {
+        return kind == LONG_ARRAY ? Long.BYTES : Integer.BYTES;
+    }
+
+    static List<Slot> slotsOf(Class<?> type) {
+        return layoutOf(type).slots();
+    }
+
+    private static Layout layoutOf(Class<?> type) {
+        return layouts.computeIfAbsent(type, BinarySnapshotCodec::buildLayout);
+    }
+
+    private static Layout buildLayout(Class<?> type) {
+        List<Slot> slots = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            List<Field> declared = new ArrayList<>(Arrays.asList(current.getDeclaredFields()));
+            declared.sort(Comparator.comparing(Field::getName));
+            for (Field field : declared) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                slots.add(new Slot(field, kindOf(field)));
+            }
+        }
+        // fixed-width slots first, so every scalar sits at the same offset in each record of a class
+        slots.sort(Comparator.comparing(slot -> widthOf(slot.kind()) < 0));
+
+        Constructor<?> constructor = null;
+        if (!Modifier.isAbstract(type.getModifiers())) {
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(type.getName() + " needs a no-arg constructor for binary snapshots");
+            }
+        }
+        return new Layout(slots, constructor);
+    }
+
+    private static byte kindOf(Field field) {
+        Class<?> type = field.getType();
+        if (type == int.class) return INT;
+        if (type == long.class) return LONG;
+        if (type == double.class) return DOUBLE;
+        if (type == boolean.class) return BOOLEAN;
+        if (type == String.class) return STRING;
+        if (type == LocalDate.class) return DATE;
+        if (type == LocalDateTime.class) return DATE_TIME;
+        if (type == int[].class) return INT_ARRAY;
+        if (type == long[].class) return LONG_ARRAY;
+        if (type.isEnum()) return ENUM;
+        if (Collection.class.isAssignableFrom(type)) return COLLECTION;
+        if (type.isPrimitive() || type.getName().startsWith("java.")) {
+            throw new IllegalStateException("Unsupported field type for binary snapshots: " + field);
+        }
+        return REFERENCE;
+    }
+
+    static Field matchField(Class<?> type, String fieldName, byte kind) {
+        if (Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        for (Slot slot : layoutOf(type).slots()) {
+            if (slot.field().getName().equals(fieldName)
+                    && (slot.kind() == kind || slot.kind() == INT && kind == DATE)) {
+                return slot.field();
+            }
+        }
+        return null;
+    }
+
+    static Object instantiate(Class<?> type) throws IOException {
+        try {
+            return layoutOf(type).constructor().newInstance();
+        } catch (ReflectiveOperationException | IllegalStateException e) {
+            throw new InvalidClassException(type.getName(), "Cannot instantiate: " + e.getMessage());
+        }
+    }
+
+    static Class<?> classNamed(String name) throws IOException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(name, "Class not found during deserialization");
+        }
+    }
+
+    private static Object get(Field field, Object target) throws IOException {
+        try {
+            return field.get(target);
+        } catch (IllegalAccessException e) {
+            throw new InvalidClassException(field.getDeclaringClass().getName(), e.getMessage());
+        }
+    }
+
+    private static void set(Field field, Object target, Object value) throws IOException {
+        try {
+            field.set(target, value);
+        } catch (IllegalAccessException e) {
+            throw new InvalidClassException(field.getDeclaringClass().getName(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package v.yeikovych.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+// capacity and taken slots share one word, so a resize and a reservation can never interleave into an overshoot
+public final class CapacityGate {
+
+    private final AtomicLong state = new AtomicLong();
+
+    public CapacityGate() {
+        this(0, 0);
+    }
+
+    public CapacityGate(int capacity, int used) {
+        throwIfFalse(() -> !isNegative(capacity) && !isNegative(used), "Capacity and usage cannot be negative");
+
+        state.set(pack(capacity, used));
+    }
+
+    // a reserved slot is committed by keeping it, release() rolls it back
+    public boolean tryReserve() {
+        while (true) {
+            long current = state.get();
+            int used = usedOf(current);
+            if (used >= capacityOf(current)) {
+                return false;
+            }
+            if (state.compareAndSet(current, pack(capacityOf(current), used + 1))) {
+                return true;
+            }
+        }
+    }
+
+    // takes a slot back without checking capacity, for undoing a release
+    public void occupy() {
+        state.getAndIncrement();
+    }
+
+    public void release() {
+        while (true) {
+            long current = state.get();
+            int used = usedOf(current);
+            throwIfFalse(() -> used > 0, "No reserved slot to release");
+            if (state.compareAndSet(current, pack(capacityOf(current), used - 1))) {
+                return;
+            }
+        }
+    }
+
+    public boolean tryResize(int capacity) {
+        throwIfFalse(() -> !isNegative(capacity), "Capacity cannot be negative");
+
+        while (true) {
+            long current = state.get();
+            if (usedOf(current) > capacity) {
+                return false;
+            }
+            if (state.compareAndSet(current, pack(capacity, usedOf(current)))) {
+                return true;
+            }
+        }
+    }
+
+    // for undoing a resize, slots taken in between stay taken even if that leaves the gate over capacity
+    public void resize(int capacity) {
+        throwIfFalse(() -> !isNegative(capacity), "Capacity cannot be negative");
+
+        state.getAndUpdate(current -> pack(capacity, usedOf(current)));
+    }
+
+    public int getCapacity() {
+        return capacityOf(state.get());
+    }
+
+    public int getUsed() {
+        return usedOf(state.get());
+    }
+
+    public int getAvailable() {
+        long current = state.get();
+        return Math.max(capacityOf(current) - usedOf(current), 0);
+    }
+
+    private static long pack(int capacity, int used) {
+        return (long) capacity << 32 | used;
+    }
+
+    private static int capacityOf(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int usedOf(long state) {
+        return (int) state;
+    }
+}
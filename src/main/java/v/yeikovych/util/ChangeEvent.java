@@ -0,0 +1,14 @@
+package v.yeikovych.util;
+
+// other entities travel as their ids, so a queued event never holds on to the object graph
+public record ChangeEvent(Kind kind, Class<? extends Extent> entityType, long entityId, String field,
+                          Object oldValue, Object newValue) {
+
+    public enum Kind {
+        CREATED,
+        DELETED,
+        UPDATED,
+        LINKED,
+        UNLINKED
+    }
+}
@@ -0,0 +1,102 @@
+package v.yeikovych.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+// change data capture for extent mutations, what happens inside a transaction is only delivered once it commits
+public final class ChangeEvents {
+
+    private static final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private ChangeEvents() {
+    }
+
+    // runs on the mutating thread while it still holds the entity locks, anything slow belongs in subscribeAsync
+    public static ChangeSubscription subscribe(Consumer<ChangeEvent> listener) {
+        throwIfNull(listener, "Listener cannot be null");
+
+        ChangeSubscription subscription = new ChangeSubscription(listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    // batches arrive in order on a thread of their own, a full ring drops events instead of holding up the writer
+    public static ChangeSubscription subscribeAsync(Consumer<List<ChangeEvent>> listener, int capacity) {
+        throwIfNull(listener, "Listener cannot be null");
+        throwIfFalse(() -> capacity > 0, "Capacity must be positive");
+
+        ChangeSubscription subscription = new ChangeSubscription(listener, capacity);
+        subscription.start();
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    // the entity is complete apart from whatever a subclass constructor sets afterwards, those follow as updates
+    public static void created(Extent entity) {
+        if (!subscriptions.isEmpty()) {
+            publish(new ChangeEvent(ChangeEvent.Kind.CREATED, entity.getClass(), entity.getId(), null, null, null));
+        }
+    }
+
+    public static void deleted(Extent entity) {
+        if (!subscriptions.isEmpty()) {
+            publish(new ChangeEvent(ChangeEvent.Kind.DELETED, entity.getClass(), entity.getId(), null, null, null));
+        }
+    }
+
+    public static void updated(Extent entity, String field, Object oldValue, Object newValue) {
+        if (!subscriptions.isEmpty() && isRegistered(entity)) {
+            publish(new ChangeEvent(ChangeEvent.Kind.UPDATED, entity.getClass(), entity.getId(), field,
+                    idOf(oldValue), idOf(newValue)));
+        }
+    }
+
+    public static void linked(Extent entity, String field, Extent other) {
+        if (!subscriptions.isEmpty() && isRegistered(entity)) {
+            publish(new ChangeEvent(ChangeEvent.Kind.LINKED, entity.getClass(), entity.getId(), field,
+                    null, other.getId()));
+        }
+    }
+
+    public static void unlinked(Extent entity, String field, Extent other) {
+        if (!subscriptions.isEmpty() && isRegistered(entity)) {
+            publish(new ChangeEvent(ChangeEvent.Kind.UNLINKED, entity.getClass(), entity.getId(), field,
+                    other.getId(), null));
+        }
+    }
+
+    static void deliver(List<ChangeEvent> events) {
+        for (ChangeSubscription subscription : subscriptions) {
+            for (ChangeEvent event : events) {
+                subscription.deliver(event);
+            }
+        }
+    }
+
+    static void unregister(ChangeSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    private static void publish(ChangeEvent event) {
+        Transaction transaction = Transaction.current();
+        if (transaction != null) {
+            transaction.changed(event);
+            return;
+        }
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.deliver(event);
+        }
+    }
+
+    // setters also run while an entity is still being built, only entities that already exist report changes
+    private static boolean isRegistered(Extent entity) {
+        return EntityIds.find(entity.getId()) == entity;
+    }
+
+    private static Object idOf(Object value) {
+        return value instanceof Extent entity ? entity.getId() : value;
+    }
+}
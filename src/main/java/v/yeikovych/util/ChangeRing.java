@@ -0,0 +1,71 @@
+package v.yeikovych.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// bounded ring for many writers and one reader, every slot carries the sequence it expects next
+final class ChangeRing {
+
+    private final ChangeEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    // reader only
+    private long head;
+
+    ChangeRing(int capacity) {
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        slots = new ChangeEvent[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // a full ring drops the event, the writer never waits for the reader
+    boolean offer(ChangeEvent event) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = event;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (sequence < position) {
+                dropped.increment();
+                return false;
+            }
+        }
+    }
+
+    int drain(List<ChangeEvent> into, int max) {
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            into.add(slots[index]);
+            slots[index] = null;
+            sequences.set(index, head + slots.length);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,105 @@
+package v.yeikovych.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+public final class ChangeSubscription implements AutoCloseable {
+
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final AtomicInteger workerCount = new AtomicInteger();
+
+    private final Consumer<ChangeEvent> listener;
+    private final Consumer<List<ChangeEvent>> batchListener;
+    private final ChangeRing ring;
+    private final Thread worker;
+    private volatile boolean closed;
+    // set while the worker is about to park, so writers only pay for an unpark when it is needed
+    private volatile boolean waiting;
+
+    ChangeSubscription(Consumer<ChangeEvent> listener) {
+        this.listener = listener;
+        this.batchListener = null;
+        this.ring = null;
+        this.worker = null;
+    }
+
+    ChangeSubscription(Consumer<List<ChangeEvent>> batchListener, int capacity) {
+        this.listener = null;
+        this.batchListener = batchListener;
+        this.ring = new ChangeRing(capacity);
+        this.worker = new Thread(this::drain, "change-events-" + workerCount.incrementAndGet());
+        this.worker.setDaemon(true);
+    }
+
+    void start() {
+        if (worker != null) {
+            worker.start();
+        }
+    }
+
+    void deliver(ChangeEvent event) {
+        if (closed) {
+            return;
+        }
+        if (ring == null) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                // the change itself already happened, a failing listener cannot undo it
+                System.out.println("Change listener failed with stacktrace: ");
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (ring.offer(event) && waiting) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    public boolean isAsync() {
+        return ring != null;
+    }
+
+    // events that did not fit into the ring, a listener that sees this grow has to resync from the extents
+    public long getDroppedCount() {
+        return ring == null ? 0 : ring.getDropped();
+    }
+
+    // events already queued are still delivered
+    @Override
+    public void close() {
+        closed = true;
+        ChangeEvents.unregister(this);
+        if (worker != null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<ChangeEvent> batch = new ArrayList<>();
+            if (ring.drain(batch, MAX_BATCH) > 0) {
+                try {
+                    batchListener.accept(batch);
+                } catch (RuntimeException e) {
+                    System.out.println("Change listener failed with stacktrace: ");
+                    e.printStackTrace();
+                }
+                continue;
+            }
+            if (closed) {
+                return;
+            }
+            waiting = true;
+            if (ring.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+}
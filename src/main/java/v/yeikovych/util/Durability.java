@@ -0,0 +1,7 @@
+package v.yeikovych.util;
+
+public enum Durability {
+    NONE,
+    ASYNC,
+    SYNC
+}
@@ -0,0 +1,78 @@
+package v.yeikovych.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+// ids are unique across all extent classes, so one registry serves every lookup
+public final class EntityIds {
+
+    private static final AtomicLong idGenerator = new AtomicLong();
+    private static final Map<Long, Extent> registry = new ConcurrentHashMap<>();
+
+    private EntityIds() {
+    }
+
+    public static long next() {
+        return idGenerator.incrementAndGet();
+    }
+
+    // restored ids must never be handed out again
+    public static void restored(long id) {
+        idGenerator.accumulateAndGet(id, Math::max);
+    }
+
+    public static Extent find(long id) {
+        return registry.get(id);
+    }
+
+    public static <T extends Extent> T find(long id, Class<T> type) {
+        Extent entity = registry.get(id);
+        return type.isInstance(entity) ? type.cast(entity) : null;
+    }
+
+    public static int size() {
+        return registry.size();
+    }
+
+    // the registry view of one extent class, kept in sync through the usual index hooks
+    public static <T extends Extent> ExtentIndex<T> indexFor(Class<T> type) {
+        throwIfNull(type, "Type cannot be null");
+
+        return new ExtentIndex<>() {
+            @Override
+            public void insert(T owner) {
+                if (register(owner)) {
+                    ChangeEvents.created(owner);
+                }
+            }
+
+            @Override
+            public void remove(T owner) {
+                if (registry.remove(owner.getId(), owner)) {
+                    ChangeEvents.deleted(owner);
+                }
+            }
+
+            // a load brings back what already existed, nothing is reported as created
+            @Override
+            public void rebuild(Collection<? extends T> extent) {
+                registry.values().removeIf(type::isInstance);
+                for (T entity : extent) {
+                    register(entity);
+                }
+            }
+        };
+    }
+
+    private static boolean register(Extent owner) {
+        Extent existing = registry.putIfAbsent(owner.getId(), owner);
+        if (existing != null && existing != owner) {
+            throw new IllegalArgumentException("Entity id already exists: " + owner.getId());
+        }
+        return existing == null;
+    }
+}
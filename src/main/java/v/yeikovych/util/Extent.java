@@ -3,4 +3,7 @@ package v.yeikovych.util;
 import java.io.Serializable;
 
 public interface Extent extends Serializable {
+
+    // stable for the lifetime of the entity, persisted with it
+    long getId();
 }
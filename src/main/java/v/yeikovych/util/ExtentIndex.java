@@ -0,0 +1,12 @@
+package v.yeikovych.util;
+
+import java.util.Collection;
+
+public interface ExtentIndex<T extends Extent> {
+
+    void insert(T owner);
+
+    void remove(T owner);
+
+    void rebuild(Collection<? extends T> extent);
+}
@@ -0,0 +1,508 @@
+package v.yeikovych.util;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class ExtentJournal implements Closeable {
+
+    // journals written before ids existed address entities by their position in the extent
+    private static final byte FIELD_RECORD = 1;
+    private static final byte FIELD_BY_ID_RECORD = 2;
+    // a transaction's changes are framed as one record, a torn tail drops all of them or none
+    private static final byte TRANSACTION_RECORD = 3;
+    private static final byte NEW_RECORD = 4;
+    private static final byte STATE_RECORD = 5;
+    private static final byte LINK_RECORD = 6;
+    private static final byte UNLINK_RECORD = 7;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte DATE = 6;
+    private static final byte ENUM = 7;
+    private static final byte DATE_TIME = 8;
+    // other entities travel as their ids
+    private static final byte REFERENCE = 9;
+    private static final byte REFERENCES = 10;
+
+    private final Path path;
+    private FileChannel channel;
+    private DataOutputStream out;
+    private int recordCount;
+    // a new journal file is only durable once its directory entry is
+    private boolean directoryForced;
+
+    ExtentJournal(Path path) {
+        this.path = path;
+    }
+
+    synchronized void append(long id, String field, Object value) throws IOException {
+        // encoded first, a value the journal cannot hold leaves no half record behind
+        Batch record = new Batch();
+        record.field(id, field, value);
+        DataOutputStream stream = open();
+        record.bytes.writeTo(stream);
+        stream.flush();
+        recordCount++;
+    }
+
+    synchronized void append(Batch batch) throws IOException {
+        DataOutputStream stream = open();
+        stream.writeByte(TRANSACTION_RECORD);
+        stream.writeInt(batch.bytes.size());
+        batch.bytes.writeTo(stream);
+        stream.flush();
+        recordCount += batch.count;
+    }
+
+    // appends keep going while the device catches up, whatever was appended before the call is covered
+    void force() throws IOException {
+        FileChannel current;
+        boolean forceDirectory;
+        synchronized (this) {
+            current = channel;
+            forceDirectory = !directoryForced;
+            directoryForced = true;
+        }
+        if (current == null) {
+            // truncated, the snapshot that replaced the records was written first
+            return;
+        }
+        try {
+            current.force(false);
+            if (forceDirectory) {
+                FileSync.forceDirectory(path.getParent());
+            }
+        } catch (ClosedChannelException e) {
+            // truncated meanwhile, same as above
+        } catch (IOException e) {
+            synchronized (this) {
+                if (channel == current) {
+                    directoryForced = false;
+                }
+            }
+            throw e;
+        }
+    }
+
+    synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    synchronized void truncate() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+        recordCount = 0;
+    }
+
+    synchronized int replay(Map<Class<? extends Extent>, List<? extends Extent>> extents) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        Replay replay = new Replay(extents);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                try {
+                    if (type == TRANSACTION_RECORD) {
+                        byte[] records = new byte[in.readInt()];
+                        in.readFully(records);
+                        replay.all(records);
+                    } else {
+                        replay.one(type, in);
+                    }
+                } catch (EOFException e) {
+                    // torn tail record from an interrupted append
+                    break;
+                }
+            }
+        }
+        // state derived from the replayed fields is rebuilt as after a snapshot load
+        for (Object entity : replay.touched) {
+            if (entity instanceof Restorable restorable) {
+                restorable.afterRestore();
+            }
+        }
+        recordCount = replay.replayed;
+        return replay.replayed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            channel = null;
+        }
+    }
+
+    private DataOutputStream open() throws IOException {
+        if (out == null) {
+            Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            directoryForced = false;
+        }
+        return out;
+    }
+
+    private static List<? extends Extent> findExtent(Map<Class<? extends Extent>, List<? extends Extent>> extents,
+                                                     String className) {
+        for (Map.Entry<Class<? extends Extent>, List<? extends Extent>> entry : extents.entrySet()) {
+            if (entry.getKey().getName().equals(className)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Map<Long, Extent> indexById(Map<Class<? extends Extent>, List<? extends Extent>> extents) {
+        Map<Long, Extent> byId = new HashMap<>();
+        for (List<? extends Extent> extent : extents.values()) {
+            synchronized (extent) {
+                for (Extent entity : extent) {
+                    byId.put(entity.getId(), entity);
+                }
+            }
+        }
+        return byId;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static void apply(Object target, String fieldName, Object value) throws IOException {
+        Field field = findField(target.getClass(), fieldName);
+        if (field == null) {
+            throw new InvalidObjectException("No field " + fieldName + " on " + target.getClass().getName());
+        }
+
+        if (value instanceof String name && field.getType().isEnum()) {
+            value = Enum.valueOf((Class<? extends Enum>) field.getType(), name);
+        }
+
+        try {
+            field.setAccessible(true);
+            if (value instanceof Collection<?> elements && Collection.class.isAssignableFrom(field.getType())) {
+                // the collection keeps its own type and ordering, only its elements are replaced
+                Collection<Object> current = (Collection<Object>) field.get(target);
+                current.clear();
+                current.addAll(elements);
+                return;
+            }
+            field.set(target, value);
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new InvalidObjectException("Cannot replay " + fieldName + ": " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void link(Object owner, String fieldName, Object target, boolean linked) throws IOException {
+        Field field = findField(owner.getClass(), fieldName);
+        if (field == null || !Collection.class.isAssignableFrom(field.getType())) {
+            throw new InvalidObjectException("No collection " + fieldName + " on " + owner.getClass().getName());
+        }
+        try {
+            field.setAccessible(true);
+            Collection<Object> elements = (Collection<Object>) field.get(owner);
+            // a snapshot written after the append may hold the link already
+            if (!linked) {
+                elements.remove(target);
+            } else if (!elements.contains(target)) {
+                elements.add(target);
+            }
+        } catch (IllegalAccessException e) {
+            throw new InvalidObjectException("Cannot replay " + fieldName + ": " + e.getMessage());
+        }
+    }
+
+    private static Field findField(Class<?> type, String fieldName) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                return current.getDeclaredField(fieldName);
+            } catch (NoSuchFieldException ignored) {
+                // keep walking up the hierarchy
+            }
+        }
+        return null;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value, Set<Extent> created) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String s) {
+            out.writeByte(STRING);
+            out.writeUTF(s);
+        } else if (value instanceof Integer i) {
+            out.writeByte(INT);
+            out.writeInt(i);
+        } else if (value instanceof Long l) {
+            out.writeByte(LONG);
+            out.writeLong(l);
+        } else if (value instanceof Double d) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(d);
+        } else if (value instanceof Boolean b) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(b);
+        } else if (value instanceof LocalDate date) {
+            out.writeByte(DATE);
+            out.writeLong(date.toEpochDay());
+        } else if (value instanceof LocalDateTime dateTime) {
+            out.writeByte(DATE_TIME);
+            out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(dateTime.getNano());
+        } else if (value instanceof Enum<?> e) {
+            out.writeByte(ENUM);
+            out.writeUTF(e.name());
+        } else if (value instanceof Extent entity) {
+            out.writeByte(REFERENCE);
+            out.writeLong(idOf(entity, created));
+        } else if (value instanceof Collection<?> elements) {
+            List<Object> copy;
+            synchronized (elements) {
+                copy = List.copyOf(elements);
+            }
+            out.writeByte(REFERENCES);
+            out.writeInt(copy.size());
+            for (Object element : copy) {
+                if (!(element instanceof Extent entity)) {
+                    throw new NotSerializableException("Unsupported journal element type: " + element.getClass().getName());
+                }
+                out.writeLong(idOf(entity, created));
+            }
+        } else {
+            throw new NotSerializableException("Unsupported journal value type: " + value.getClass().getName());
+        }
+    }
+
+    // replay finds entities by id, so only those in an extent, or created by the same record, can be referenced
+    private static long idOf(Extent entity, Set<Extent> created) throws IOException {
+        if (EntityIds.find(entity.getId()) != entity && !created.contains(entity)) {
+            throw new NotSerializableException("Reference outside any extent: " + entity.getClass().getName());
+        }
+        return entity.getId();
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case NULL -> null;
+            case STRING, ENUM -> in.readUTF();
+            case INT -> in.readInt();
+            case LONG -> in.readLong();
+            case DOUBLE -> in.readDouble();
+            case BOOLEAN -> in.readBoolean();
+            case DATE -> LocalDate.ofEpochDay(in.readLong());
+            case DATE_TIME -> LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            case REFERENCE -> new Reference(in.readLong());
+            case REFERENCES -> {
+                long[] ids = new long[in.readInt()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = in.readLong();
+                }
+                yield new References(ids);
+            }
+            default -> throw new StreamCorruptedException("Unknown journal value tag: " + tag);
+        };
+    }
+
+    private record Reference(long id) {
+    }
+
+    private record References(long[] ids) {
+    }
+
+    // what one transaction changed, entities it created come first and whole, so the rest can refer to them
+    static final class Batch {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Set<Extent> created = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int count;
+
+        void create(Extent entity) throws IOException {
+            created.add(entity);
+            out.writeByte(NEW_RECORD);
+            out.writeUTF(entity.getClass().getName());
+            out.writeLong(entity.getId());
+            count++;
+        }
+
+        void state(Extent entity) throws IOException {
+            List<BinarySnapshotCodec.Slot> slots = BinarySnapshotCodec.slotsOf(entity.getClass());
+            out.writeByte(STATE_RECORD);
+            out.writeLong(entity.getId());
+            out.writeInt(slots.size());
+            for (BinarySnapshotCodec.Slot slot : slots) {
+                out.writeUTF(slot.field().getName());
+                try {
+                    writeValue(out, slot.field().get(entity), created);
+                } catch (IllegalAccessException e) {
+                    throw new InvalidClassException(entity.getClass().getName(), e.getMessage());
+                }
+            }
+            count++;
+        }
+
+        void field(long id, String field, Object value) throws IOException {
+            out.writeByte(FIELD_BY_ID_RECORD);
+            out.writeLong(id);
+            out.writeUTF(field);
+            writeValue(out, value, created);
+            count++;
+        }
+
+        void link(Extent owner, String field, Extent target, boolean linked) throws IOException {
+            out.writeByte(linked ? LINK_RECORD : UNLINK_RECORD);
+            out.writeLong(idOf(owner, created));
+            out.writeUTF(field);
+            out.writeLong(idOf(target, created));
+            count++;
+        }
+    }
+
+    private static final class Replay {
+        private final Map<Class<? extends Extent>, List<? extends Extent>> extents;
+        private final Set<Object> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+        // the id registry is only rebuilt after the replay
+        private Map<Long, Extent> byId;
+        private int replayed;
+
+        private Replay(Map<Class<? extends Extent>, List<? extends Extent>> extents) {
+            this.extents = extents;
+        }
+
+        private void all(byte[] records) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+            try {
+                while (in.available() > 0) {
+                    one(in.readByte(), in);
+                }
+            } catch (EOFException e) {
+                throw new StreamCorruptedException("Truncated transaction record");
+            }
+        }
+
+        private void one(byte type, DataInputStream in) throws IOException {
+            switch (type) {
+                case FIELD_RECORD, FIELD_BY_ID_RECORD -> {
+                    Extent entity;
+                    if (type == FIELD_BY_ID_RECORD) {
+                        entity = find(in.readLong());
+                    } else {
+                        List<? extends Extent> extent = findExtent(extents, in.readUTF());
+                        int index = in.readInt();
+                        entity = extent == null || index < 0 || index >= extent.size() ? null : extent.get(index);
+                    }
+                    String fieldName = in.readUTF();
+                    Object value = readValue(in);
+                    if (entity != null) {
+                        apply(entity, fieldName, resolve(value));
+                        touch(entity);
+                    }
+                }
+                case NEW_RECORD -> {
+                    Class<?> entityClass = BinarySnapshotCodec.classNamed(in.readUTF());
+                    long id = in.readLong();
+                    if (find(id) == null) {
+                        Extent entity = (Extent) BinarySnapshotCodec.instantiate(entityClass);
+                        extentOf(entityClass).add(entity);
+                        byId.put(id, entity);
+                        touch(entity);
+                    }
+                }
+                case STATE_RECORD -> {
+                    Extent entity = find(in.readLong());
+                    int count = in.readInt();
+                    Map<String, Object> values = new LinkedHashMap<>();
+                    for (int i = 0; i < count; i++) {
+                        values.put(in.readUTF(), readValue(in));
+                    }
+                    if (entity != null) {
+                        for (Map.Entry<String, Object> entry : values.entrySet()) {
+                            apply(entity, entry.getKey(), resolve(entry.getValue()));
+                        }
+                        touch(entity);
+                    }
+                }
+                case LINK_RECORD, UNLINK_RECORD -> {
+                    Extent owner = find(in.readLong());
+                    String fieldName = in.readUTF();
+                    Extent target = find(in.readLong());
+                    if (owner != null && target != null) {
+                        link(owner, fieldName, target, type == LINK_RECORD);
+                        touch(owner);
+                    }
+                }
+                default -> throw new StreamCorruptedException("Unknown journal record type: " + type);
+            }
+        }
+
+        private void touch(Extent entity) {
+            touched.add(entity);
+            replayed++;
+        }
+
+        private Extent find(long id) {
+            if (byId == null) {
+                byId = indexById(extents);
+            }
+            return byId.get(id);
+        }
+
+        private Object resolve(Object value) {
+            if (value instanceof Reference reference) {
+                return find(reference.id());
+            }
+            if (value instanceof References references) {
+                List<Extent> entities = new ArrayList<>(references.ids().length);
+                for (long id : references.ids()) {
+                    Extent entity = find(id);
+                    if (entity != null) {
+                        entities.add(entity);
+                    }
+                }
+                return entities;
+            }
+            return value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Extent> extentOf(Class<?> type) throws IOException {
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                List<? extends Extent> extent = extents.get(current);
+                if (extent != null) {
+                    return (List<Extent>) extent;
+                }
+            }
+            throw new InvalidObjectException("No extent for " + type.getName());
+        }
+    }
+}
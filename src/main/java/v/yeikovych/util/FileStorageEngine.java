@@ -0,0 +1,104 @@
+package v.yeikovych.util;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+// the whole graph in one snapshot file, written with whichever codec is current
+final class FileStorageEngine implements StorageEngine {
+
+    static final String FILE_NAME = "ser-files.ser";
+
+    private final Path directory;
+    private final Path file;
+    private final Supplier<List<SnapshotCodec>> codecs;
+    // shards left by the mapped engine are still read, and removed once this engine has written
+    private final ShardedStore shards;
+
+    // the first codec writes, every codec is tried when reading
+    FileStorageEngine(Path directory, Supplier<List<SnapshotCodec>> codecs, ShardedStore shards) {
+        this.directory = directory;
+        this.file = directory.resolve(FILE_NAME);
+        this.codecs = codecs;
+        this.shards = shards;
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.isRegularFile(file) || shards.exists();
+    }
+
+    @Override
+    public Map<Class<? extends Extent>, List<? extends Extent>> read() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return shards.read();
+        }
+        // nothing in memory matches the shard ids any more
+        shards.forget();
+        return readSnapshot(file, codecs.get());
+    }
+
+    @Override
+    public void write(Map<Class<? extends Extent>, List<? extends Extent>> extents,
+                      Set<Class<? extends Extent>> dirty, boolean force) throws IOException {
+        Files.createDirectories(directory);
+        // a crash mid-write leaves the previous snapshot intact
+        Path staging = directory.resolve(FILE_NAME + ".tmp");
+        try (FileOutputStream staged = new FileOutputStream(staging.toFile());
+             OutputStream out = new BufferedOutputStream(staged)) {
+            codecs.get().get(0).write(extents, out);
+            out.flush();
+            if (force) {
+                staged.getFD().sync();
+            }
+        }
+        Files.move(staging, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (force) {
+            FileSync.forceDirectory(directory);
+        }
+        shards.delete();
+        System.out.println("Extents written to: " + file);
+    }
+
+    @Override
+    public MappedSnapshot openSnapshot(int cacheCapacity) throws IOException {
+        return Files.isRegularFile(file) || !shards.exists()
+                ? MappedSnapshot.open(file, cacheCapacity)
+                : MappedSnapshot.open(shards.files(), cacheCapacity);
+    }
+
+    @Override
+    public void forget() {
+        shards.forget();
+    }
+
+    Path file() {
+        return file;
+    }
+
+    static Map<Class<? extends Extent>, List<? extends Extent>> readSnapshot(Path file, List<SnapshotCodec> codecs)
+            throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file.toFile()))) {
+            // the snapshot header decides the codec, so switching codecs keeps older snapshots readable
+            in.mark(4);
+            byte[] header = in.readNBytes(4);
+            in.reset();
+            for (SnapshotCodec candidate : codecs) {
+                if (candidate.recognizes(header)) {
+                    return candidate.read(in);
+                }
+            }
+            throw new StreamCorruptedException("Unrecognized snapshot format");
+        }
+    }
+}
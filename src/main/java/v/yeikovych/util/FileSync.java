@@ -0,0 +1,27 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class FileSync {
+
+    private FileSync() {
+    }
+
+    // a rename only survives a crash once the directory holding it is on the device too
+    public static void forceDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (AccessDeniedException e) {
+            // Windows does not open directories, a rename there is as durable as the platform makes it
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+// callers that arrive while a commit runs wait for the next one, which then covers all of them at once
+final class GroupCommit {
+
+    interface Action {
+        void run() throws IOException;
+    }
+
+    private final Action action;
+    private long requested;
+    private long completed;
+    private boolean running;
+
+    GroupCommit(Action action) {
+        this.action = action;
+    }
+
+    // returns once a commit that started after this call has finished
+    void await() throws IOException {
+        long covered;
+        synchronized (this) {
+            long ticket = ++requested;
+            while (running && completed < ticket) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a commit");
+                }
+            }
+            if (completed >= ticket) {
+                return;
+            }
+            running = true;
+            covered = requested;
+        }
+
+        boolean succeeded = false;
+        try {
+            action.run();
+            succeeded = true;
+        } finally {
+            synchronized (this) {
+                // after a failure the next waiter leads a retry instead of taking the failed commit for its own
+                if (succeeded) {
+                    completed = covered;
+                }
+                running = false;
+                notifyAll();
+            }
+        }
+    }
+}
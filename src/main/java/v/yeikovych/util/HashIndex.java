@@ -0,0 +1,88 @@
+package v.yeikovych.util;
+
+import java.util.*;
+import java.util.function.Function;
+
+public class HashIndex<K, T extends Extent> implements ExtentIndex<T> {
+
+    private final Function<T, K> keyExtractor;
+    // buckets are identity sets, entity equality covers mutable fields
+    protected final Map<K, Set<T>> buckets;
+
+    public HashIndex(Function<T, K> keyExtractor) {
+        this(keyExtractor, new HashMap<>());
+    }
+
+    protected HashIndex(Function<T, K> keyExtractor, Map<K, Set<T>> buckets) {
+        this.keyExtractor = keyExtractor;
+        this.buckets = buckets;
+    }
+
+    public static <E extends Enum<E>, T extends Extent> HashIndex<E, T> forEnum(Class<E> keyType,
+                                                                              Function<T, E> keyExtractor) {
+        return new HashIndex<>(keyExtractor, new EnumMap<>(keyType));
+    }
+
+    public synchronized List<T> find(K key) {
+        Set<T> bucket = buckets.get(key);
+        return bucket == null ? List.of() : List.copyOf(bucket);
+    }
+
+    public synchronized int count(K key) {
+        Set<T> bucket = buckets.get(key);
+        return bucket == null ? 0 : bucket.size();
+    }
+
+    @Override
+    public synchronized void insert(T owner) {
+        add(keyExtractor.apply(owner), owner);
+    }
+
+    public synchronized void update(K oldKey, K newKey, T owner) {
+        if (oldKey == null || Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        // owner is not indexed yet, insert() adds it later
+        if (discard(oldKey, owner)) {
+            add(newKey, owner);
+        }
+    }
+
+    @Override
+    public synchronized void remove(T owner) {
+        discard(keyExtractor.apply(owner), owner);
+    }
+
+    @Override
+    public synchronized void rebuild(Collection<? extends T> extent) {
+        buckets.clear();
+        for (T entity : extent) {
+            insert(entity);
+        }
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (Set<T> bucket : buckets.values()) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    private void add(K key, T owner) {
+        if (key != null) {
+            buckets.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(owner);
+        }
+    }
+
+    private boolean discard(K key, T owner) {
+        Set<T> bucket = key == null ? null : buckets.get(key);
+        if (bucket == null || !bucket.remove(owner)) {
+            return false;
+        }
+        if (bucket.isEmpty()) {
+            buckets.remove(key);
+        }
+        return true;
+    }
+}
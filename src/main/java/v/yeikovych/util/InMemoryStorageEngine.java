@@ -0,0 +1,39 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// keeps nothing, for measuring the domain logic without any I/O
+final class InMemoryStorageEngine implements StorageEngine {
+
+    @Override
+    public boolean isDurable() {
+        return false;
+    }
+
+    @Override
+    public boolean exists() {
+        return false;
+    }
+
+    @Override
+    public Map<Class<? extends Extent>, List<? extends Extent>> read() {
+        return Map.of();
+    }
+
+    @Override
+    public void write(Map<Class<? extends Extent>, List<? extends Extent>> extents,
+                      Set<Class<? extends Extent>> dirty, boolean force) {
+    }
+
+    @Override
+    public MappedSnapshot openSnapshot(int cacheCapacity) throws IOException {
+        throw new IOException("The in-memory storage engine keeps no snapshot");
+    }
+
+    @Override
+    public void forget() {
+    }
+}
@@ -0,0 +1,132 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+public class IndexedSortedSet<T> extends AbstractSet<T> implements Serializable {
+
+    private final Comparator<? super T> comparator;
+    private transient NavigableSet<T> ordered;
+    private transient Set<T> members;
+    // elements read from a stream are ordered on first use, their sort keys may still be incomplete mid-graph
+    private transient volatile Object[] pending;
+
+    public IndexedSortedSet(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+        this.ordered = new ConcurrentSkipListSet<>(comparator);
+        this.members = ConcurrentHashMap.newKeySet();
+    }
+
+    @Override
+    public boolean add(T element) {
+        ensureOrdered();
+        if (!members.add(element)) {
+            return false;
+        }
+        ordered.add(element);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        ensureOrdered();
+        if (!members.remove(element)) {
+            return false;
+        }
+        ordered.remove(element);
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        return members.contains(element);
+    }
+
+    @Override
+    public int size() {
+        return members.size();
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (T element : members) {
+            hash += element.hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        ensureOrdered();
+        Iterator<T> iterator = ordered.iterator();
+        return new Iterator<>() {
+            private T current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                current = iterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                members.remove(current);
+            }
+        };
+    }
+
+    public T first() {
+        ensureOrdered();
+        return ordered.isEmpty() ? null : ordered.first();
+    }
+
+    public NavigableSet<T> view() {
+        ensureOrdered();
+        return Collections.unmodifiableNavigableSet(ordered);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void ensureOrdered() {
+        Object[] elements = pending;
+        if (elements == null) {
+            return;
+        }
+        synchronized (this) {
+            if (pending == null) {
+                return;
+            }
+            for (Object element : elements) {
+                ordered.add((T) element);
+            }
+            pending = null;
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(pending != null ? pending : ordered.toArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ordered = new ConcurrentSkipListSet<>(comparator);
+        members = ConcurrentHashMap.newKeySet();
+        pending = (Object[]) in.readObject();
+        for (Object element : pending) {
+            members.add((T) element);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package v.yeikovych.util;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+public class JavaSnapshotCodec implements SnapshotCodec {
+
+    private static final int STREAM_MAGIC = 0xACED;
+
+    @Override
+    public void write(Map<Class<? extends Extent>, List<? extends Extent>> extents, OutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(extents);
+        oos.flush();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Class<? extends Extent>, List<? extends Extent>> read(InputStream in) throws IOException {
+        try {
+            return (Map<Class<? extends Extent>, List<? extends Extent>>) new ObjectInputStream(in).readObject();
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException("Class not found during deserialization: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean recognizes(byte[] header) {
+        return header.length >= 2 && ((header[0] & 0xFF) << 8 | header[1] & 0xFF) == STREAM_MAGIC;
+    }
+}
@@ -0,0 +1,260 @@
+package v.yeikovych.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static v.yeikovych.util.BinarySnapshotCodec.*;
+import static v.yeikovych.util.ValidationUtils.*;
+
+// one mapped snapshot file, records are served through the owning MappedSnapshot
+final class MappedShard {
+
+    private final MappedSnapshot snapshot;
+    private final int index;
+    private final ByteBuffer buffer;
+    private final Class<?>[] classes;
+    private final Slot[][] layouts;
+    // offset of each slot from the record start, known up to the first collection
+    private final int[][] fixedOffsets;
+    private final List<Map<String, Integer>> slotsByName = new ArrayList<>();
+    private final int stringTableOffset;
+    private final int objectCount;
+    private final int objectClassesOffset;
+    private final int recordTableOffset;
+    private final Map<Class<?>, int[]> extentIds = new HashMap<>();
+    private final String[] importShards;
+    private final int[] importIds;
+    private final Map<String, Map<Object, Integer>> keyIndexes = new HashMap<>();
+
+    MappedShard(MappedSnapshot snapshot, int index, ByteBuffer buffer) throws IOException {
+        this.snapshot = snapshot;
+        this.index = index;
+        this.buffer = buffer;
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new StreamCorruptedException("Not a binary extent snapshot");
+        }
+        int version = buffer.getInt(4);
+        if (version < 2 || version > VERSION) {
+            throw new InvalidClassException("Only version 2 and later snapshots can be mapped");
+        }
+
+        // only the class table is parsed up front, everything else is located through the trailer
+        ByteBuffer header = buffer.duplicate().position(8);
+        int classCount = header.getInt();
+        classes = new Class<?>[classCount];
+        layouts = new Slot[classCount][];
+        fixedOffsets = new int[classCount][];
+        for (int i = 0; i < classCount; i++) {
+            classes[i] = classNamed(readUtf(header));
+            int slotCount = header.getInt();
+            layouts[i] = new Slot[slotCount];
+            Map<String, Integer> byName = new HashMap<>();
+            for (int j = 0; j < slotCount; j++) {
+                String fieldName = readUtf(header);
+                byte kind = header.get();
+                layouts[i][j] = new Slot(matchField(classes[i], fieldName, kind), kind);
+                byName.put(fieldName, j);
+            }
+            slotsByName.add(byName);
+            fixedOffsets[i] = fixedOffsetsOf(layouts[i]);
+        }
+
+        int trailer = (int) buffer.getLong(buffer.limit() - Long.BYTES);
+        int stringCount = buffer.getInt(trailer);
+        stringTableOffset = trailer + Integer.BYTES;
+        int objectTable = stringTableOffset + stringCount * Integer.BYTES;
+        objectCount = buffer.getInt(objectTable);
+        objectClassesOffset = buffer.getInt(objectTable + Integer.BYTES);
+        recordTableOffset = objectTable + 2 * Integer.BYTES;
+        int extentsOffset = buffer.getInt(recordTableOffset + objectCount * Integer.BYTES);
+
+        int extentCount = buffer.getInt(extentsOffset);
+        int position = extentsOffset + Integer.BYTES;
+        for (int i = 0; i < extentCount; i++) {
+            Class<?> extentClass = classes[buffer.getInt(position)];
+            int size = buffer.getInt(position + Integer.BYTES);
+            int[] ids = new int[size];
+            buffer.slice(position + 2 * Integer.BYTES, size * Integer.BYTES).asIntBuffer().get(ids);
+            extentIds.put(extentClass, ids);
+            position += (2 + size) * Integer.BYTES;
+        }
+
+        if (version >= 3) {
+            int importsOffset = buffer.getInt(recordTableOffset + (objectCount + 1) * Integer.BYTES);
+            ByteBuffer imports = buffer.duplicate().position(importsOffset);
+            String[] shardNames = new String[imports.getInt()];
+            for (int i = 0; i < shardNames.length; i++) {
+                shardNames[i] = readUtf(imports);
+            }
+            int importCount = imports.getInt();
+            importShards = new String[importCount];
+            importIds = new int[importCount];
+            for (int i = 0; i < importCount; i++) {
+                importShards[i] = shardNames[imports.getShort()];
+                importIds[i] = imports.getInt();
+            }
+        } else {
+            importShards = new String[0];
+            importIds = new int[0];
+        }
+    }
+
+    static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshots over 2 GB cannot be mapped: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    int index() {
+        return index;
+    }
+
+    Set<Class<?>> extentClasses() {
+        return extentIds.keySet();
+    }
+
+    int count(Class<?> extentClass) {
+        int[] ids = extentIds.get(extentClass);
+        return ids == null ? 0 : ids.length;
+    }
+
+    SnapshotRecord get(Class<?> extentClass, int position) {
+        int[] ids = extentIds.get(extentClass);
+        throwIfFalse(() -> ids != null && position >= 0 && position < ids.length,
+                "No " + extentClass.getSimpleName() + " at position " + position);
+        return record(ids[position]);
+    }
+
+    // the key index for a field is built by one pass over the mapped records the first time it is queried
+    SnapshotRecord find(Class<?> extentClass, String field, Object key) {
+        Map<Object, Integer> index;
+        synchronized (keyIndexes) {
+            index = keyIndexes.computeIfAbsent(extentClass.getName() + '#' + field, k -> buildKeyIndex(extentClass, field));
+        }
+        Integer id = index.get(key);
+        return id == null ? null : record(id);
+    }
+
+    SnapshotRecord record(int id) {
+        return snapshot.record(this, id);
+    }
+
+    // references below NULL_REF point into another shard through the import table
+    SnapshotRecord resolve(int id) {
+        if (id >= 0) {
+            return record(id);
+        }
+        int imported = -2 - id;
+        return snapshot.shard(importShards[imported]).record(importIds[imported]);
+    }
+
+    SnapshotRecord newRecord(int id) {
+        int classIndex = buffer.getShort(objectClassesOffset + id * Short.BYTES);
+        int offset = buffer.getInt(recordTableOffset + id * Integer.BYTES);
+        return new SnapshotRecord(this, id, classes[classIndex], slotsByName.get(classIndex),
+                layouts[classIndex], slotOffsets(classIndex, offset));
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    String string(int stringIndex) {
+        return stringIndex == NULL_REF ? null : readUtf(buffer, buffer.getInt(stringTableOffset + stringIndex * Integer.BYTES));
+    }
+
+    private Map<Object, Integer> buildKeyIndex(Class<?> extentClass, String field) {
+        int[] ids = extentIds.get(extentClass);
+        Map<Object, Integer> index = new HashMap<>();
+        if (ids == null) {
+            return index;
+        }
+
+        int[] slotOfClass = new int[classes.length];
+        Arrays.fill(slotOfClass, -1);
+        for (int id : ids) {
+            int classIndex = buffer.getShort(objectClassesOffset + id * Short.BYTES);
+            if (slotOfClass[classIndex] < 0) {
+                Integer slot = slotsByName.get(classIndex).get(field);
+                throwIfFalse(() -> slot != null, "No field " + field + " on " + classes[classIndex].getSimpleName());
+                slotOfClass[classIndex] = slot;
+            }
+            int slot = slotOfClass[classIndex];
+            int recordOffset = buffer.getInt(recordTableOffset + id * Integer.BYTES);
+            int fixed = fixedOffsets[classIndex][slot];
+            int offset = fixed >= 0 ? recordOffset + fixed : slotOffsets(classIndex, recordOffset)[slot];
+            index.put(SnapshotRecord.decode(this, layouts[classIndex][slot], offset), id);
+        }
+        return index;
+    }
+
+    private static int[] fixedOffsetsOf(Slot[] slots) {
+        int[] offsets = new int[slots.length];
+        int position = 0;
+        for (int i = 0; i < slots.length; i++) {
+            offsets[i] = position;
+            int width = widthOf(slots[i].kind());
+            position = position < 0 || width < 0 ? -1 : position + width;
+        }
+        return offsets;
+    }
+
+    private int[] slotOffsets(int classIndex, int recordOffset) {
+        Slot[] slots = layouts[classIndex];
+        int[] fixed = fixedOffsets[classIndex];
+        int[] offsets = new int[slots.length];
+        int position = recordOffset;
+        for (int i = 0; i < slots.length; i++) {
+            if (fixed[i] >= 0) {
+                position = recordOffset + fixed[i];
+            }
+            offsets[i] = position;
+            int width = widthOf(slots[i].kind());
+            if (width < 0) {
+                int size = buffer.getInt(position);
+                width = Integer.BYTES + elementWidthOf(slots[i].kind()) * Math.max(size, 0);
+            }
+            position += width;
+        }
+        return offsets;
+    }
+
+    private static String readUtf(ByteBuffer source) {
+        String value = readUtf(source, source.position());
+        source.position(source.position() + Short.BYTES + Short.toUnsignedInt(source.getShort(source.position())));
+        return value;
+    }
+
+    private static String readUtf(ByteBuffer source, int position) {
+        int length = Short.toUnsignedInt(source.getShort(position));
+        byte[] bytes = new byte[length];
+        source.get(position + Short.BYTES, bytes);
+        for (byte b : bytes) {
+            if (b < 0) {
+                try {
+                    return new DataInputStream(new ByteArrayInputStream(withLength(bytes))).readUTF();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] withLength(byte[] bytes) {
+        byte[] framed = new byte[bytes.length + 2];
+        framed[0] = (byte) (bytes.length >>> 8);
+        framed[1] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, framed, 2, bytes.length);
+        return framed;
+    }
+}
@@ -0,0 +1,102 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+public class MappedSnapshot implements AutoCloseable {
+
+    // shard files are keyed by the extent class that owns them, a single snapshot file is keyed by ""
+    private final Map<String, MappedShard> shards = new LinkedHashMap<>();
+    private final Map<Long, SnapshotRecord> cache;
+    private volatile boolean closed;
+
+    private MappedSnapshot(int cacheCapacity) {
+        cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SnapshotRecord> eldest) {
+                return size() > cacheCapacity;
+            }
+        };
+    }
+
+    public static MappedSnapshot open(Path file, int cacheCapacity) throws IOException {
+        throwIfNull(file, "File cannot be null");
+
+        return open(Map.of("", file), cacheCapacity);
+    }
+
+    public static MappedSnapshot open(Map<String, Path> shardFiles, int cacheCapacity) throws IOException {
+        throwIfNull(shardFiles, "Shard files cannot be null");
+        throwIfFalse(() -> cacheCapacity > 0, "Cache capacity must be positive");
+
+        MappedSnapshot snapshot = new MappedSnapshot(cacheCapacity);
+        for (Map.Entry<String, Path> entry : shardFiles.entrySet()) {
+            MappedShard shard = new MappedShard(snapshot, snapshot.shards.size(), MappedShard.map(entry.getValue()));
+            snapshot.shards.put(entry.getKey(), shard);
+        }
+        return snapshot;
+    }
+
+    public int count(Class<? extends Extent> extentClass) {
+        MappedShard shard = shardFor(extentClass);
+        return shard == null ? 0 : shard.count(extentClass);
+    }
+
+    public SnapshotRecord get(Class<? extends Extent> extentClass, int position) {
+        MappedShard shard = shardFor(extentClass);
+        throwIfNull(shard, "No " + extentClass.getSimpleName() + " at position " + position);
+        return shard.get(extentClass, position);
+    }
+
+    public SnapshotRecord find(Class<? extends Extent> extentClass, String field, Object key) {
+        throwIfNull(field, "Field cannot be null");
+
+        MappedShard shard = shardFor(extentClass);
+        return shard == null ? null : shard.find(extentClass, field, key);
+    }
+
+    public int getCachedCount() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    SnapshotRecord record(MappedShard shard, int id) {
+        throwIfFalse(() -> !closed, "Snapshot is closed");
+        long key = (long) shard.index() << 32 | id;
+        synchronized (cache) {
+            SnapshotRecord record = cache.get(key);
+            if (record == null) {
+                record = shard.newRecord(id);
+                cache.put(key, record);
+            }
+            return record;
+        }
+    }
+
+    MappedShard shard(String name) {
+        MappedShard shard = shards.get(name);
+        throwIfNull(shard, "Snapshot has no shard " + name);
+        return shard;
+    }
+
+    private MappedShard shardFor(Class<?> extentClass) {
+        for (MappedShard shard : shards.values()) {
+            if (shard.extentClasses().contains(extentClass)) {
+                return shard;
+            }
+        }
+        return null;
+    }
+}
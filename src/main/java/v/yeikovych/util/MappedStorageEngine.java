@@ -0,0 +1,66 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+// binary shards per extent class, rewritten only where something changed and mapped into memory by openSnapshot
+final class MappedStorageEngine implements StorageEngine {
+
+    private final ShardedStore shards;
+    private final Path directory;
+    private final Path legacyFile;
+    private final Supplier<List<SnapshotCodec>> codecs;
+
+    // a snapshot file written by the file engine is read once and replaced by shards on the next write
+    MappedStorageEngine(ShardedStore shards, Path directory, Path legacyFile, Supplier<List<SnapshotCodec>> codecs) {
+        this.shards = shards;
+        this.directory = directory;
+        this.legacyFile = legacyFile;
+        this.codecs = codecs;
+    }
+
+    @Override
+    public boolean isDurable() {
+        return true;
+    }
+
+    @Override
+    public boolean exists() {
+        return shards.exists() || Files.isRegularFile(legacyFile);
+    }
+
+    @Override
+    public Map<Class<? extends Extent>, List<? extends Extent>> read() throws IOException {
+        if (shards.exists()) {
+            return shards.read();
+        }
+        shards.forget();
+        return FileStorageEngine.readSnapshot(legacyFile, codecs.get());
+    }
+
+    @Override
+    public void write(Map<Class<? extends Extent>, List<? extends Extent>> extents,
+                      Set<Class<? extends Extent>> dirty, boolean force) throws IOException {
+        shards.write(extents, dirty, force);
+        // a single snapshot file left next to the shards would be older than them
+        Files.deleteIfExists(legacyFile);
+        System.out.println("Extents written to: " + directory);
+    }
+
+    @Override
+    public MappedSnapshot openSnapshot(int cacheCapacity) throws IOException {
+        return shards.exists()
+                ? MappedSnapshot.open(shards.files(), cacheCapacity)
+                : MappedSnapshot.open(legacyFile, cacheCapacity);
+    }
+
+    @Override
+    public void forget() {
+        shards.forget();
+    }
+}
@@ -0,0 +1,192 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+// one bit per ordinal, elements are resolved back through the Ordinals of their class
+public class OrdinalSet<T> extends AbstractSet<T> implements Serializable {
+
+    private static final long[] EMPTY = new long[0];
+
+    private final Class<T> type;
+    private long[] words = EMPTY;
+    private int size;
+    private transient volatile Ordinals<T> ordinals;
+
+    public OrdinalSet(Class<T> type) {
+        throwIfNull(type, "Type cannot be null");
+
+        this.type = type;
+    }
+
+    @Override
+    public boolean add(T element) {
+        throwIfNull(element, "Element cannot be null");
+
+        int ordinal = ordinals().ordinalOf(element);
+        synchronized (this) {
+            int word = ordinal >>> 6;
+            if (word >= words.length) {
+                words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+            }
+            long bit = 1L << ordinal;
+            if ((words[word] & bit) != 0) {
+                return false;
+            }
+            words[word] |= bit;
+            size++;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(Object element) {
+        int ordinal = ordinalOf(element);
+        if (ordinal < 0) {
+            return false;
+        }
+        synchronized (this) {
+            int word = ordinal >>> 6;
+            long bit = 1L << ordinal;
+            if (word >= words.length || (words[word] & bit) == 0) {
+                return false;
+            }
+            words[word] &= ~bit;
+            size--;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(Object element) {
+        int ordinal = ordinalOf(element);
+        if (ordinal < 0) {
+            return false;
+        }
+        synchronized (this) {
+            int word = ordinal >>> 6;
+            return word < words.length && (words[word] & 1L << ordinal) != 0;
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        words = EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> other) {
+        if (!(other instanceof OrdinalSet<?> set) || set.type != type) {
+            return super.containsAll(other);
+        }
+        long[] theirs = set.words();
+        synchronized (this) {
+            for (int i = 0; i < theirs.length; i++) {
+                long mine = i < words.length ? words[i] : 0;
+                if ((theirs[i] & ~mine) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> other) {
+        if (!(other instanceof OrdinalSet<?> set) || set.type != type) {
+            return super.retainAll(other);
+        }
+        long[] theirs = set.words();
+        synchronized (this) {
+            int before = size;
+            size = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] &= i < theirs.length ? theirs[i] : 0;
+                size += Long.bitCount(words[i]);
+            }
+            return size != before;
+        }
+    }
+
+    public OrdinalSet<T> intersection(OrdinalSet<T> other) {
+        throwIfNull(other, "Other set cannot be null");
+
+        long[] mine = words();
+        long[] theirs = other.words();
+        OrdinalSet<T> result = new OrdinalSet<>(type);
+        result.words = new long[Math.min(mine.length, theirs.length)];
+        for (int i = 0; i < result.words.length; i++) {
+            result.words[i] = mine[i] & theirs[i];
+            result.size += Long.bitCount(result.words[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        long[] snapshot = words();
+        return new Iterator<>() {
+            private int word;
+            private long remaining = snapshot.length > 0 ? snapshot[0] : 0;
+            private T current;
+
+            @Override
+            public boolean hasNext() {
+                while (remaining == 0 && word + 1 < snapshot.length) {
+                    remaining = snapshot[++word];
+                }
+                return remaining != 0;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int ordinal = word << 6 | Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                current = ordinals().get(ordinal);
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                throwIfFalse(() -> current != null, "Nothing to remove");
+                OrdinalSet.this.remove(current);
+                current = null;
+            }
+        };
+    }
+
+    private synchronized long[] words() {
+        return words.clone();
+    }
+
+    private int ordinalOf(Object element) {
+        Ordinals<T> resolved = ordinals();
+        return resolved.accepts(element) ? resolved.ordinalOf(type.cast(element)) : -1;
+    }
+
+    private Ordinals<T> ordinals() {
+        Ordinals<T> resolved = ordinals;
+        if (resolved == null) {
+            resolved = Ordinals.of(type);
+            ordinals = resolved;
+        }
+        return resolved;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+}
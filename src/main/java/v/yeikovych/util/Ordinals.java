@@ -0,0 +1,79 @@
+package v.yeikovych.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+// dense per-class numbers, so membership across many entities fits in a bitset
+public final class Ordinals<T> {
+
+    private static final Map<Class<?>, Ordinals<?>> byType = new ConcurrentHashMap<>();
+
+    private final Class<T> type;
+    private final ToIntFunction<T> ordinalOf;
+    private final AtomicInteger ordinalGenerator = new AtomicInteger();
+    private Object[] entities = new Object[64];
+
+    public Ordinals(Class<T> type, ToIntFunction<T> ordinalOf) {
+        throwIfNull(type, "Type cannot be null");
+        throwIfNull(ordinalOf, "Ordinal extractor cannot be null");
+
+        this.type = type;
+        this.ordinalOf = ordinalOf;
+        byType.put(type, this);
+        // a reloaded graph brings its own ordinals
+        SerializationUtil.registerResetListener(this::clear);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Ordinals<T> of(Class<T> type) {
+        Ordinals<?> ordinals = byType.get(type);
+        if (ordinals == null) {
+            // the owning class registers its ordinals while initializing
+            try {
+                Class.forName(type.getName(), true, type.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+            ordinals = byType.get(type);
+        }
+        throwIfNull(ordinals, "No ordinals registered for " + type.getSimpleName());
+        return (Ordinals<T>) ordinals;
+    }
+
+    public int next() {
+        return ordinalGenerator.getAndIncrement();
+    }
+
+    // called for new entities and again for restored ones, whose stored ordinal must not be handed out again
+    public synchronized void register(T entity) {
+        int ordinal = ordinalOf.applyAsInt(entity);
+        if (ordinal >= entities.length) {
+            entities = Arrays.copyOf(entities, Math.max(ordinal + 1, entities.length * 2));
+        }
+        entities[ordinal] = entity;
+        ordinalGenerator.accumulateAndGet(ordinal + 1, Math::max);
+    }
+
+    int ordinalOf(T entity) {
+        return ordinalOf.applyAsInt(entity);
+    }
+
+    boolean accepts(Object value) {
+        return type.isInstance(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized T get(int ordinal) {
+        return ordinal < entities.length ? (T) entities[ordinal] : null;
+    }
+
+    private synchronized void clear() {
+        entities = new Object[64];
+        ordinalGenerator.set(0);
+    }
+}
@@ -0,0 +1,7 @@
+package v.yeikovych.util;
+
+public enum PersistenceMode {
+    IMMEDIATE,
+    WRITE_BEHIND,
+    JOURNAL
+}
@@ -0,0 +1,7 @@
+package v.yeikovych.util;
+
+public interface Restorable {
+
+    // called once the whole object graph of a snapshot has been read, and again if journal replay changed the object
+    void afterRestore();
+}
@@ -2,66 +2,668 @@ package v.yeikovych.util;
 
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static v.yeikovych.util.ValidationUtils.*;
 
 public class SerializationUtil {
 
-    private static final String DIRECTORY_PATH = "src\\main\\resources\\extents";
-    private static final String FILE_ABSOLUTE_PATH = DIRECTORY_PATH + "\\ser-files.ser";
-    private static final Map<Class<? extends Extent>, List<? extends Extent>> extents = new HashMap<>();
+    private static final Path DIRECTORY = Paths.get(System.getProperty("mas.extents.dir",
+            Paths.get("src", "main", "resources", "extents").toString()));
+    private static final Map<Class<? extends Extent>, List<? extends Extent>> extents = new ConcurrentHashMap<>();
+    private static final Map<Class<? extends Extent>, List<ExtentIndex<?>>> indexes = new ConcurrentHashMap<>();
+    private static final List<Runnable> resetListeners = new CopyOnWriteArrayList<>();
+
+    // write-behind
+    private static volatile PersistenceMode mode = PersistenceMode.IMMEDIATE;
+    private static volatile int dirtyThreshold = Integer.MAX_VALUE;
+    private static final AtomicInteger dirtyCount = new AtomicInteger();
+    private static final AtomicBoolean flushQueued = new AtomicBoolean();
+    private static final Object flusherLock = new Object();
+    private static ScheduledExecutorService flusher;
+    private static Thread shutdownHook;
+
+    // bulk, a scope only holds back the writes of the thread that opened it
+    private static final ThreadLocal<DeferredScope> deferredScope = ThreadLocal.withInitial(DeferredScope::new);
+
+    // codec
+    private static final SnapshotCodec javaCodec = new JavaSnapshotCodec();
+    private static final BinarySnapshotCodec binaryCodec = new BinarySnapshotCodec();
+    private static volatile SnapshotCodec codec = codecNamed(System.getProperty("mas.snapshot.codec", "binary"));
+
+    // engines, the file and mapped engines read what the other one left behind
+    private static final ShardedStore shardStore = new ShardedStore(DIRECTORY, binaryCodec);
+    private static final StorageEngine memoryEngine = new InMemoryStorageEngine();
+    private static final FileStorageEngine fileEngine =
+            new FileStorageEngine(DIRECTORY, SerializationUtil::codecsByPreference, shardStore);
+    private static final StorageEngine mappedEngine =
+            new MappedStorageEngine(shardStore, DIRECTORY, fileEngine.file(), SerializationUtil::codecsByPreference);
+    private static volatile StorageEngine engine = engineNamed(System.getProperty("mas.storage.engine",
+            codec == binaryCodec ? "mapped" : "file"));
+    private static final Set<Class<? extends Extent>> dirtyShards = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean allShardsDirty = new AtomicBoolean(true);
+    // constant so that a stripe holder asking again still writes once on release
+    private static final Runnable WRITE = SerializationUtil::write;
+    private static final Runnable COMPACT = SerializationUtil::compactSnapshot;
+
+    // transactions
+    private static final SnapshotGate snapshotGate = new SnapshotGate();
+
+    // journal
+    private static final String JOURNAL_FILE_NAME = "journal.log";
+    private static final ExtentJournal journal = new ExtentJournal(DIRECTORY.resolve(JOURNAL_FILE_NAME));
+    private static volatile int compactionThreshold = Integer.MAX_VALUE;
+
+    // durability, NONE leaves flushing to the OS, ASYNC forces snapshots before they replace the old ones and the
+    // journal shortly after an append, SYNC makes every writer wait until its change is on the device
+    private static final long ASYNC_FORCE_DELAY_MILLIS = 20;
+    private static volatile Durability durability = durabilityNamed(System.getProperty("mas.durability", "async"));
+    // concurrent writers share one snapshot write or one journal force
+    private static final GroupCommit snapshotCommit = new GroupCommit(SerializationUtil::writeSnapshot);
+    private static final GroupCommit journalCommit = new GroupCommit(journal::force);
+    private static final AtomicBoolean journalForceQueued = new AtomicBoolean();
+    private static final ScheduledExecutorService journalForcer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "journal-forcer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    @SuppressWarnings("all")
     public static void readExtent() {
-        File dir = new File(DIRECTORY_PATH);
-        if (!dir.exists() || !dir.isDirectory()) {
-            System.out.println("Directory does not exist or is not a directory: " + DIRECTORY_PATH);
+        StorageEngine current = engine;
+        if (!current.isDurable()) {
             return;
         }
-
-        File[] files = dir.listFiles((d, name) -> name.endsWith(".ser"));
-        if (files == null || files.length == 0) {
-            System.out.println("No serialized files found in: " + DIRECTORY_PATH);
+        if (!Files.isDirectory(DIRECTORY)) {
+            System.out.println("Directory does not exist or is not a directory: " + DIRECTORY);
+            return;
+        }
+        if (!current.exists()) {
+            System.out.println("No serialized files found in: " + DIRECTORY);
             return;
         }
 
-        File file = files[0];
-        String fileName = file.getName();
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            Map<Class<? extends Extent>, List<? extends Extent>> loadedExtents =
-                    (Map<Class<? extends Extent>, List<? extends Extent>>) ois.readObject();
+        // derived state keyed by the old object graph is dropped before the new graph registers itself
+        resetListeners.forEach(Runnable::run);
+        try {
+            Map<Class<? extends Extent>, List<? extends Extent>> loadedExtents = current.read();
+            // memory now matches what was stored, later writes only touch what changes
+            allShardsDirty.set(false);
+            dirtyShards.clear();
 
-            extents.clear();
-            extents.putAll(loadedExtents);
+            for (Map.Entry<Class<? extends Extent>, List<? extends Extent>> entry : loadedExtents.entrySet()) {
+                // the loaded list holds the same class as the live one under that key
+                @SuppressWarnings("unchecked")
+                List<Extent> live = (List<Extent>) extents.get(entry.getKey());
+                if (live == null) {
+                    extents.put(entry.getKey(), entry.getValue());
+                } else {
+                    synchronized (live) {
+                        live.clear();
+                        live.addAll(entry.getValue());
+                    }
+                }
+            }
+
+            int replayed = journal.replay(extents);
+            if (replayed > 0) {
+                // replayed changes are not in any shard yet
+                allShardsDirty.set(true);
+                System.out.println("Replayed " + replayed + " journal records.");
+            }
+
+            for (Class<? extends Extent> extentClass : extents.keySet()) {
+                rebuildIndexes(extentClass);
+            }
 
             System.out.println("Successfully deserialized all extents.");
-        } catch (ClassNotFoundException e) {
-            System.err.println("Class not found during deserialization.");
-            e.printStackTrace();
         } catch (IOException e) {
-            System.err.println("Failed to deserialize file.");
-            e.printStackTrace();
+            throw new UncheckedIOException("Failed to deserialize extents", e);
+        }
+    }
+
+    // serves reads straight from the last binary snapshot without materializing the object graph
+    public static MappedSnapshot openSnapshot(int cacheCapacity) throws IOException {
+        snapshotGate.enter();
+        try {
+            return engine.openSnapshot(cacheCapacity);
+        } finally {
+            snapshotGate.exit();
         }
     }
 
-    @SuppressWarnings("all")
     public static void writeExtent() {
+        allShardsDirty.set(true);
+        requestWrite();
+    }
+
+    // only the shard of the given extent is rewritten when nothing else changed
+    public static void writeExtent(Class<? extends Extent> extentClass) {
+        throwIfNull(extentClass, "Extent class cannot be null");
+        dirtyShards.add(extentClass);
+        requestWrite();
+    }
+
+    private static void requestWrite() {
+        if (deferToTransaction() || !engine.isDurable()) {
+            return;
+        }
+        DeferredScope scope = deferredScope.get();
+        if (scope.depth > 0) {
+            scope.writePending = true;
+            return;
+        }
+        // a snapshot write waits for open transactions, and those may be waiting for a stripe this thread holds
+        StripedLocks.afterRelease(WRITE);
+    }
+
+    private static void write() {
+        switch (mode) {
+            case WRITE_BEHIND -> markDirty();
+            case JOURNAL -> compact();
+            default -> persist();
+        }
+    }
+
+    public static void recordChange(Extent entity, String field, Object oldValue, Object value) {
+        ChangeEvents.updated(entity, field, oldValue, value);
+        markChanged(entity);
+
+        Transaction transaction = Transaction.current();
+        if (transaction != null) {
+            // the commit journals or writes it, the old value is kept for rollback
+            transaction.fieldChanged(findExtentClass(entity), entity, field, oldValue, value);
+            return;
+        }
+
+        if (!engine.isDurable()) {
+            return;
+        }
+
+        // a deferred scope always ends in a full write, which supersedes journal records
+        if (mode != PersistenceMode.JOURNAL || deferredScope.get().depth > 0) {
+            requestWrite();
+            return;
+        }
+
+        // ids are registered as entities join their extent
+        if (EntityIds.find(entity.getId()) != entity) {
+            // not part of any extent yet, the insert itself writes the snapshot
+            return;
+        }
+
+        try {
+            journal.append(entity.getId(), field, value);
+            forceJournal();
+        } catch (IOException e) {
+            System.out.println("Journal write failed, falling back to snapshot: " + e.getMessage());
+            compact();
+            return;
+        }
+
+        if (journal.getRecordCount() >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    // a transaction journals the new entity whole, outside of one its shard is rewritten
+    public static void recordInsert(Extent entity) {
+        markChanged(entity);
+
+        Transaction transaction = Transaction.current();
+        if (transaction != null) {
+            transaction.inserted(entity);
+            return;
+        }
+        requestWrite();
+    }
+
+    // an entity was added to or taken out of a collection of another one
+    public static void recordLink(Extent owner, String field, Extent target, boolean linked) {
+        markChanged(owner);
+
+        Transaction transaction = Transaction.current();
+        if (transaction != null) {
+            transaction.linked(owner, field, target, linked);
+            return;
+        }
+        requestWrite();
+    }
+
+    private static void markChanged(Extent entity) {
+        Class<? extends Extent> changedClass = findExtentClass(entity);
+        if (changedClass != null) {
+            dirtyShards.add(changedClass);
+        } else {
+            allShardsDirty.set(true);
+        }
+    }
+
+    public static <T> T deferWrites(Supplier<T> work) {
+        throwIfNull(work, "Work cannot be null");
+
+        DeferredScope scope = deferredScope.get();
+        scope.depth++;
         try {
-            Files.createDirectories(Paths.get(DIRECTORY_PATH));
+            return work.get();
+        } finally {
+            if (--scope.depth == 0 && scope.writePending) {
+                scope.writePending = false;
+                requestWrite();
+            }
+        }
+    }
+
+    public static void enableJournal(int compactionThreshold) {
+        throwIfFalse(() -> compactionThreshold > 0, "Compaction threshold must be positive");
+
+        synchronized (flusherLock) {
+            stopFlusher();
+            SerializationUtil.compactionThreshold = compactionThreshold;
+            mode = PersistenceMode.JOURNAL;
+        }
+        compact();
+    }
+
+    public static void compact() {
+        if (deferToTransaction()) {
+            return;
+        }
+        StripedLocks.afterRelease(COMPACT);
+    }
+
+    private static synchronized void compactSnapshot() {
+        // the journal next to an engine that keeps nothing may well belong to a real store
+        if (!engine.isDurable()) {
+            return;
+        }
+        // the snapshot write truncates the journal it supersedes
+        persist();
+    }
+
+    public static void enableWriteBehind(Duration flushInterval, int dirtyThreshold) {
+        throwIfNull(flushInterval, "Flush interval cannot be null");
+        throwIfFalse(() -> !flushInterval.isNegative() && !flushInterval.isZero(),
+                "Flush interval must be positive");
+        throwIfFalse(() -> dirtyThreshold > 0, "Dirty threshold must be positive");
 
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(FILE_ABSOLUTE_PATH))) {
-                oos.writeObject(extents);
+        synchronized (flusherLock) {
+            stopFlusher();
+
+            SerializationUtil.dirtyThreshold = dirtyThreshold;
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "extent-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalMillis = Math.max(1, flushInterval.toMillis());
+            flusher.scheduleWithFixedDelay(() -> runInBackground(SerializationUtil::flush), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+            if (shutdownHook == null) {
+                shutdownHook = new Thread(() -> runInBackground(SerializationUtil::flush), "extent-flusher-shutdown");
+                Runtime.getRuntime().addShutdownHook(shutdownHook);
             }
-            System.out.println("Extents written to: " + FILE_ABSOLUTE_PATH);
-        } catch (IOException e) {
-            System.out.println("Serialization failed with stacktrace: ");
-            e.printStackTrace();
+
+            mode = PersistenceMode.WRITE_BEHIND;
+        }
+    }
+
+    public static void useDurability(Durability durability) {
+        throwIfNull(durability, "Durability cannot be null");
+        SerializationUtil.durability = durability;
+    }
+
+    public static void useDurability(String name) {
+        throwIfNull(name, "Durability name cannot be null");
+        useDurability(durabilityNamed(name));
+    }
+
+    public static Durability getDurability() {
+        return durability;
+    }
+
+    private static Durability durabilityNamed(String name) {
+        return switch (name) {
+            case "none" -> Durability.NONE;
+            case "async" -> Durability.ASYNC;
+            case "sync" -> Durability.SYNC;
+            default -> throw new IllegalArgumentException("Unknown durability: " + name);
+        };
+    }
+
+    public static void useCodec(SnapshotCodec codec) {
+        throwIfNull(codec, "Codec cannot be null");
+        SerializationUtil.codec = codec;
+    }
+
+    public static void useCodec(String name) {
+        throwIfNull(name, "Codec name cannot be null");
+        useCodec(codecNamed(name));
+    }
+
+    public static SnapshotCodec getCodec() {
+        return codec;
+    }
+
+    private static SnapshotCodec codecNamed(String name) {
+        return switch (name) {
+            case "java" -> javaCodec;
+            case "binary" -> binaryCodec;
+            default -> throw new IllegalArgumentException("Unknown snapshot codec: " + name);
+        };
+    }
+
+    private static List<SnapshotCodec> codecsByPreference() {
+        return List.of(codec, javaCodec, binaryCodec);
+    }
+
+    // takes effect for the next read or write, whatever the previous engine still has pending is its own business
+    public static void useStorageEngine(StorageEngine engine) {
+        throwIfNull(engine, "Storage engine cannot be null");
+        engine.forget();
+        allShardsDirty.set(true);
+        SerializationUtil.engine = engine;
+    }
+
+    public static void useStorageEngine(String name) {
+        throwIfNull(name, "Storage engine name cannot be null");
+        useStorageEngine(engineNamed(name));
+    }
+
+    public static StorageEngine getStorageEngine() {
+        return engine;
+    }
+
+    private static StorageEngine engineNamed(String name) {
+        return switch (name) {
+            case "memory" -> memoryEngine;
+            case "file" -> fileEngine;
+            case "mapped" -> mappedEngine;
+            default -> throw new IllegalArgumentException("Unknown storage engine: " + name);
+        };
+    }
+
+    public static PersistenceMode getMode() {
+        return mode;
+    }
+
+    public static Path getDirectory() {
+        return DIRECTORY;
+    }
+
+    public static void flush() {
+        flushQueued.set(false);
+        if (dirtyCount.getAndSet(0) > 0) {
+            persist();
         }
     }
 
+    public static void close() {
+        synchronized (flusherLock) {
+            PersistenceMode previous = mode;
+            mode = PersistenceMode.IMMEDIATE;
+            stopFlusher();
+            flush();
+
+            if (previous == PersistenceMode.JOURNAL) {
+                compact();
+            }
+
+            if (shutdownHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException ignored) {
+                    // already shutting down, the hook flushes on its own
+                }
+                shutdownHook = null;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
     public static <T extends Extent> void registerExtent(List<T> extent, Class<T> extentClass) {
+        List<T> loaded = (List<T>) extents.get(extentClass);
+        if (loaded != null && loaded != extent) {
+            // extents were read before the class registered its own list
+            synchronized (extent) {
+                extent.clear();
+                extent.addAll(loaded);
+            }
+        }
         extents.put(extentClass, extent);
+        rebuildIndexes(extentClass);
+    }
+
+    public static void registerResetListener(Runnable listener) {
+        resetListeners.add(listener);
+    }
+
+    public static void clearExtents() {
+        resetListeners.forEach(Runnable::run);
+        engine.forget();
+        allShardsDirty.set(true);
+        for (Map.Entry<Class<? extends Extent>, List<? extends Extent>> entry : extents.entrySet()) {
+            synchronized (entry.getValue()) {
+                entry.getValue().clear();
+                rebuildIndexes(entry.getKey());
+            }
+        }
+    }
+
+    public static <T extends Extent> void registerIndex(Class<T> extentClass, ExtentIndex<T> index) {
+        indexes.computeIfAbsent(extentClass, c -> new CopyOnWriteArrayList<>()).add(index);
+        rebuildIndexes(extentClass);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static void rebuildIndexes(Class<? extends Extent> extentClass) {
+        List<? extends Extent> extent = extents.get(extentClass);
+        if (extent == null) {
+            return;
+        }
+        synchronized (extent) {
+            for (ExtentIndex index : indexes.getOrDefault(extentClass, List.of())) {
+                index.rebuild(extent);
+            }
+        }
+    }
+
+    private static Class<? extends Extent> findExtentClass(Extent entity) {
+        for (Class<?> type = entity.getClass(); type != null; type = type.getSuperclass()) {
+            if (extents.containsKey(type)) {
+                return type.asSubclass(Extent.class);
+            }
+        }
+        return null;
+    }
+
+    private static void markDirty() {
+        if (dirtyCount.incrementAndGet() >= dirtyThreshold && flushQueued.compareAndSet(false, true)) {
+            ScheduledExecutorService current = flusher;
+            if (current != null && !current.isShutdown()) {
+                current.execute(() -> runInBackground(SerializationUtil::flush));
+            } else {
+                flush();
+            }
+        }
+    }
+
+    private static void stopFlusher() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flusher = null;
+        }
+    }
+
+    static void enterTransaction() {
+        snapshotGate.enter();
+    }
+
+    static void exitTransaction() {
+        snapshotGate.exit();
+    }
+
+    // striped changes outside a transaction keep snapshot writes out the same way
+    static void enterChange() {
+        snapshotGate.enter();
+    }
+
+    static void exitChange() {
+        snapshotGate.exit();
+    }
+
+    // the commit is written before any other transaction starts, a deferred scope around it does not hold it back
+    static void commitTransaction(boolean dirty, Supplier<ExtentJournal.Batch> journaled) {
+        if (!dirty) {
+            snapshotGate.exit();
+            return;
+        }
+        if (mode == PersistenceMode.JOURNAL && engine.isDurable()) {
+            ExtentJournal.Batch batch = journaled.get();
+            if (batch != null && appendCommit(batch)) {
+                return;
+            }
+        }
+        snapshotGate.exitHolding();
+        try {
+            if (engine.isDurable()) {
+                write();
+            }
+        } finally {
+            snapshotGate.release();
+        }
+    }
+
+    // appended while the transaction still keeps snapshots out, so a compaction either has the commit in its
+    // snapshot or starts after the append; only the force runs outside, shared with every other committer
+    private static boolean appendCommit(ExtentJournal.Batch batch) {
+        try {
+            journal.append(batch);
+        } catch (IOException e) {
+            System.out.println("Journal write failed, falling back to snapshot: " + e.getMessage());
+            return false;
+        }
+        snapshotGate.exit();
+
+        try {
+            forceJournal();
+        } catch (IOException e) {
+            System.out.println("Journal force failed, falling back to snapshot: " + e.getMessage());
+            compact();
+            return true;
+        }
+        if (journal.getRecordCount() >= compactionThreshold) {
+            compact();
+        }
+        return true;
+    }
+
+    private static boolean deferToTransaction() {
+        Transaction transaction = Transaction.current();
+        if (transaction == null) {
+            return false;
+        }
+        transaction.markDirty();
+        return true;
+    }
+
+    private static void forceJournal() throws IOException {
+        switch (durability) {
+            case SYNC -> journalCommit.await();
+            case ASYNC -> {
+                if (journalForceQueued.compareAndSet(false, true)) {
+                    journalForcer.schedule(() -> {
+                        // appends from here on queue the next force
+                        journalForceQueued.set(false);
+                        try {
+                            journalCommit.await();
+                        } catch (IOException e) {
+                            System.out.println("Journal force failed, falling back to snapshot: " + e.getMessage());
+                            runInBackground(SerializationUtil::compact);
+                        }
+                    }, ASYNC_FORCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static void persist() {
+        if (deferToTransaction()) {
+            return;
+        }
+
+        try {
+            if (durability == Durability.SYNC) {
+                snapshotCommit.await();
+            } else {
+                writeSnapshot();
+            }
+        } catch (IOException e) {
+            writeFailed("Serialization", e);
+        }
+    }
+
+    // a SYNC writer has to learn that its change is not on disk, with the weaker levels nobody waits for it anyway
+    private static void writeFailed(String operation, IOException e) {
+        if (durability == Durability.SYNC) {
+            throw new UncheckedIOException(operation + " failed", e);
+        }
+        System.out.println(operation + " failed: " + e.getMessage());
+    }
+
+    // background threads have no writer to hand the failure to, and a scheduled task that throws never runs again
+    private static void runInBackground(Runnable write) {
+        try {
+            write.run();
+        } catch (UncheckedIOException e) {
+            System.out.println("Background write failed: " + e.getCause().getMessage());
+        }
+    }
+
+    private static void writeSnapshot() throws IOException {
+        snapshotGate.beginWrite();
+        try {
+            boolean all = allShardsDirty.getAndSet(false);
+            Set<Class<? extends Extent>> dirty = new HashSet<>(dirtyShards);
+            dirtyShards.removeAll(dirty);
+            try {
+                engine.write(extents, all ? null : dirty, durability != Durability.NONE);
+            } catch (IOException | RuntimeException e) {
+                allShardsDirty.set(true);
+                throw e;
+            }
+            // records are only appended from inside the gate, so the snapshot holds every one dropped here and a
+            // crash before the truncate only replays changes it already has
+            if (engine.isDurable()) {
+                journal.truncate();
+            }
+        } finally {
+            snapshotGate.endWrite();
+        }
+    }
+
+    private static final class DeferredScope {
+        private int depth;
+        private boolean writePending;
     }
 }
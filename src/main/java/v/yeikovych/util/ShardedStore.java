@@ -0,0 +1,451 @@
+package v.yeikovych.util;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static v.yeikovych.util.BinarySnapshotCodec.*;
+
+// one binary snapshot file per extent class, listed in a manifest that is replaced atomically
+final class ShardedStore {
+
+    private static final int MANIFEST_MAGIC = 0x4D41534D; // "MASM"
+    private static final String MANIFEST_FILE_NAME = "extents.manifest";
+    private static final String SHARD_SUFFIX = ".shard";
+
+    private final Path directory;
+    private final BinarySnapshotCodec codec;
+    // ownership and ids survive between writes, so references held by untouched shards stay valid
+    private final Map<Class<? extends Extent>, Shard> shards = new HashMap<>();
+    private final IdentityHashMap<Object, Shard> owners = new IdentityHashMap<>();
+    private long generation;
+
+    private static final class Shard {
+        private final Class<? extends Extent> extentClass;
+        private List<Object> objects = new ArrayList<>();
+        private IdentityHashMap<Object, Integer> ids = new IdentityHashMap<>();
+        // objects of other shards its file refers to by id, they stay where they are while it does
+        private Set<Object> imports = identitySet();
+        private String fileName;
+
+        private Shard(Class<? extends Extent> extentClass) {
+            this.extentClass = extentClass;
+        }
+    }
+
+    private record Manifest(long generation, Map<String, String> files) {
+    }
+
+    ShardedStore(Path directory, BinarySnapshotCodec codec) {
+        this.directory = directory;
+        this.codec = codec;
+    }
+
+    boolean exists() {
+        return Files.exists(directory.resolve(MANIFEST_FILE_NAME));
+    }
+
+    Map<String, Path> files() throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : readManifest().files().entrySet()) {
+            files.put(entry.getKey(), directory.resolve(entry.getValue()));
+        }
+        return files;
+    }
+
+    // the next write renumbers every shard
+    void forget() {
+        shards.clear();
+        owners.clear();
+    }
+
+    // dirty == null rewrites every shard
+    void write(Map<Class<? extends Extent>, List<? extends Extent>> extents,
+               Set<Class<? extends Extent>> dirty, boolean force) throws IOException {
+        Comparator<Class<?>> byName = Comparator.comparing(Class::getName);
+        Map<Class<? extends Extent>, List<Extent>> roots = new TreeMap<>(byName);
+        for (Map.Entry<Class<? extends Extent>, List<? extends Extent>> entry : extents.entrySet()) {
+            synchronized (entry.getValue()) {
+                roots.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+        }
+
+        Set<Class<? extends Extent>> rewrite = new TreeSet<>(byName);
+        if (dirty == null || !shards.keySet().equals(roots.keySet())) {
+            forget();
+            rewrite.addAll(roots.keySet());
+        } else {
+            rewrite.addAll(dirty);
+            rewrite.retainAll(roots.keySet());
+        }
+        for (Class<? extends Extent> extentClass : roots.keySet()) {
+            shards.computeIfAbsent(extentClass, Shard::new);
+        }
+
+        // an extent member always lives in its own shard, whichever shard reaches it first
+        for (Map.Entry<Class<? extends Extent>, List<Extent>> entry : roots.entrySet()) {
+            Shard shard = shards.get(entry.getKey());
+            for (Extent root : entry.getValue()) {
+                Shard owner = owners.get(root);
+                if (owner != shard) {
+                    rewrite.add(entry.getKey());
+                    if (owner != null) {
+                        // the shard that held it so far refers to it under a new id
+                        rewrite.add(owner.extentClass);
+                    }
+                }
+            }
+        }
+
+        Sweep sweep = new Sweep(roots);
+        sweep.begin(rewrite);
+        sweep.apply();
+        rewrite.addAll(sweep.rewritten());
+
+        Files.createDirectories(directory);
+        long next = generation + 1;
+        Map<Class<? extends Extent>, String> written = new HashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Class<? extends Extent> extentClass : rewrite) {
+            Shard shard = shards.get(extentClass);
+            String fileName = extentClass.getName() + "-" + next + SHARD_SUFFIX;
+            written.put(extentClass, fileName);
+            tasks.add(() -> {
+                try (FileOutputStream file = new FileOutputStream(directory.resolve(fileName).toFile());
+                     OutputStream out = new BufferedOutputStream(file)) {
+                    codec.writeShard(Map.of(extentClass, roots.get(extentClass)), shard.objects, shard.ids,
+                            this::foreignRef, out);
+                    out.flush();
+                    if (force) {
+                        file.getFD().sync();
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        // shard files are only reachable through the manifest, so a crash before the move keeps the previous set
+        Map<String, String> files = new LinkedHashMap<>();
+        for (Shard shard : shards.values()) {
+            files.put(shard.extentClass.getName(), written.getOrDefault(shard.extentClass, shard.fileName));
+        }
+        writeManifest(new Manifest(next, files), force);
+        generation = next;
+        written.forEach((extentClass, fileName) -> shards.get(extentClass).fileName = fileName);
+        deleteStaleShards(files.values());
+    }
+
+    Map<Class<? extends Extent>, List<? extends Extent>> read() throws IOException {
+        Manifest manifest = readManifest();
+
+        List<String> names = new ArrayList<>(manifest.files().keySet());
+        List<Callable<ShardImage>> tasks = new ArrayList<>();
+        for (String name : names) {
+            Path file = directory.resolve(manifest.files().get(name));
+            tasks.add(() -> {
+                try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+                    return codec.readShard(in);
+                }
+            });
+        }
+        List<ShardImage> loaded = runAll(tasks);
+
+        Map<String, ShardImage> images = new LinkedHashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            images.put(names.get(i), loaded.get(i));
+        }
+        Map<Class<? extends Extent>, List<? extends Extent>> extents = link(images);
+
+        // the loaded ids become the ownership the next partial write builds on
+        forget();
+        for (Map.Entry<String, ShardImage> entry : images.entrySet()) {
+            Shard shard = new Shard(classNamed(entry.getKey()).asSubclass(Extent.class));
+            shard.fileName = manifest.files().get(entry.getKey());
+            for (Object object : entry.getValue().objects()) {
+                claim(shard, object);
+            }
+            ShardImage image = entry.getValue();
+            for (int i = 0; i < image.importShards().length; i++) {
+                shard.imports.add(images.get(image.importShards()[i]).objects()[image.importIds()[i]]);
+            }
+            shards.put(shard.extentClass, shard);
+            extents.putIfAbsent(shard.extentClass, Collections.synchronizedList(new ArrayList<>()));
+        }
+        generation = manifest.generation();
+        return extents;
+    }
+
+    void delete() throws IOException {
+        forget();
+        Files.deleteIfExists(directory.resolve(MANIFEST_FILE_NAME));
+        deleteStaleShards(List.of());
+    }
+
+    private void claim(Shard shard, Object object) {
+        shard.ids.put(object, shard.objects.size());
+        shard.objects.add(object);
+        owners.put(object, shard);
+    }
+
+    private static Set<Object> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private Shard shardOf(Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            Shard shard = shards.get(current);
+            if (shard != null) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    private ForeignRef foreignRef(Object value) {
+        Shard owner = owners.get(value);
+        return owner == null ? null : new ForeignRef(owner.extentClass.getName(), owner.ids.get(value));
+    }
+
+    private Manifest readManifest() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(directory.resolve(MANIFEST_FILE_NAME))))) {
+            if (in.readInt() != MANIFEST_MAGIC) {
+                throw new StreamCorruptedException("Not an extent manifest");
+            }
+            long generation = in.readLong();
+            int count = in.readInt();
+            Map<String, String> files = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                files.put(in.readUTF(), in.readUTF());
+            }
+            return new Manifest(generation, files);
+        }
+    }
+
+    private void writeManifest(Manifest manifest, boolean force) throws IOException {
+        Path target = directory.resolve(MANIFEST_FILE_NAME);
+        Path staging = directory.resolve(MANIFEST_FILE_NAME + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(staging.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeLong(manifest.generation());
+            out.writeInt(manifest.files().size());
+            for (Map.Entry<String, String> entry : manifest.files().entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.flush();
+            if (force) {
+                file.getFD().sync();
+            }
+        }
+        Files.move(staging, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (force) {
+            // the shard files it names were created in the same directory, so this covers them as well
+            FileSync.forceDirectory(directory);
+        }
+    }
+
+    private void deleteStaleShards(Collection<String> live) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SHARD_SUFFIX)) {
+            for (Path file : files) {
+                if (!live.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    // a rewritten shard keeps what the roots still reach, everything else leaves it and its owner entry; kept objects
+    // keep their ids unless one before them left, then the shards referring to them are rewritten as well
+    private final class Sweep {
+        private final Map<Class<? extends Extent>, List<Extent>> roots;
+        private final Map<Shard, List<Object>> reached = new LinkedHashMap<>();
+        private final Map<Shard, Set<Object>> imports = new HashMap<>();
+        private final IdentityHashMap<Object, Shard> placed = new IdentityHashMap<>();
+        // references into untouched shards, their owner may still join the rewrite later on
+        private final Set<Object> foreign = identitySet();
+        private final Deque<Object> frontier = new ArrayDeque<>();
+        private final Map<Shard, List<Object>> layouts = new HashMap<>();
+
+        private Sweep(Map<Class<? extends Extent>, List<Extent>> roots) {
+            this.roots = roots;
+        }
+
+        private void begin(Set<Class<? extends Extent>> rewrite) throws IOException {
+            for (Class<? extends Extent> extentClass : rewrite) {
+                open(shards.get(extentClass));
+            }
+            while (true) {
+                mark();
+                if (!enterHolders() && layOut()) {
+                    return;
+                }
+            }
+        }
+
+        private Set<Class<? extends Extent>> rewritten() {
+            Set<Class<? extends Extent>> classes = new HashSet<>();
+            for (Shard shard : reached.keySet()) {
+                classes.add(shard.extentClass);
+            }
+            return classes;
+        }
+
+        private void apply() {
+            for (Shard shard : reached.keySet()) {
+                for (Object object : shard.objects) {
+                    if (owners.get(object) == shard) {
+                        owners.remove(object);
+                    }
+                }
+            }
+            for (Map.Entry<Shard, List<Object>> entry : layouts.entrySet()) {
+                Shard shard = entry.getKey();
+                shard.objects = new ArrayList<>(entry.getValue().size());
+                shard.ids = new IdentityHashMap<>();
+                for (Object object : entry.getValue()) {
+                    claim(shard, object);
+                }
+                shard.imports = imports.get(shard);
+            }
+        }
+
+        private void enter(Shard shard) {
+            if (reached.containsKey(shard)) {
+                return;
+            }
+            open(shard);
+            for (Object object : foreign) {
+                if (owners.get(object) == shard) {
+                    place(shard, object);
+                }
+            }
+        }
+
+        private void open(Shard shard) {
+            reached.put(shard, new ArrayList<>());
+            imports.put(shard, identitySet());
+            for (Extent root : roots.get(shard.extentClass)) {
+                place(shard, root);
+            }
+        }
+
+        // an object nothing rewritten reaches may only be held by a dead part of an untouched shard, possibly in a
+        // cycle back to this one, so the holder is marked from its own roots instead of keeping the object alive
+        private boolean enterHolders() {
+            boolean entered = false;
+            for (Shard other : List.copyOf(shards.values())) {
+                if (reached.containsKey(other)) {
+                    continue;
+                }
+                for (Object object : other.imports) {
+                    if (reached.containsKey(owners.get(object)) && !placed.containsKey(object)) {
+                        enter(other);
+                        entered = true;
+                        break;
+                    }
+                }
+            }
+            return entered;
+        }
+
+        private void place(Shard shard, Object object) {
+            if (placed.putIfAbsent(object, shard) == null) {
+                reached.get(shard).add(object);
+                frontier.add(object);
+            }
+        }
+
+        // objects reached for the first time join the shard of their extent, or the shard that reached them
+        private void mark() throws IOException {
+            while (!frontier.isEmpty()) {
+                Object object = frontier.poll();
+                Shard shard = placed.get(object);
+                forEachReferenced(object, value -> {
+                    Shard target = placed.get(value);
+                    if (target == null) {
+                        Shard owner = owners.get(value);
+                        if (owner != null && !reached.containsKey(owner)) {
+                            foreign.add(value);
+                            imports.get(shard).add(value);
+                            return;
+                        }
+                        target = owner != null ? owner : value instanceof Extent ? shardOf(value.getClass()) : null;
+                        if (target == null) {
+                            target = shard;
+                        }
+                        enter(target);
+                        place(target, value);
+                    }
+                    if (target != shard) {
+                        imports.get(shard).add(value);
+                    }
+                });
+            }
+        }
+
+        // false when a kept object moved to a new id and the shards that refer to it had to join
+        private boolean layOut() {
+            Set<Object> moved = identitySet();
+            for (Shard shard : reached.keySet()) {
+                List<Object> layout = new ArrayList<>();
+                for (Object object : shard.objects) {
+                    if (placed.get(object) == shard) {
+                        if (shard.ids.get(object) != layout.size()) {
+                            moved.add(object);
+                        }
+                        layout.add(object);
+                    }
+                }
+                for (Object object : reached.get(shard)) {
+                    if (owners.get(object) != shard) {
+                        layout.add(object);
+                    }
+                }
+                layouts.put(shard, layout);
+            }
+            if (moved.isEmpty()) {
+                return true;
+            }
+
+            boolean stable = true;
+            for (Shard other : List.copyOf(shards.values())) {
+                if (!reached.containsKey(other) && other.imports.stream().anyMatch(moved::contains)) {
+                    enter(other);
+                    stable = false;
+                }
+            }
+            return stable;
+        }
+    }
+
+    private static <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while accessing shards");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException("Shard access failed", e.getCause());
+            }
+        }
+        return results;
+    }
+}
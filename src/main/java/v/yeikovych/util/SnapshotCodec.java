@@ -0,0 +1,17 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+public interface SnapshotCodec {
+
+    void write(Map<Class<? extends Extent>, List<? extends Extent>> extents, OutputStream out) throws IOException;
+
+    Map<Class<? extends Extent>, List<? extends Extent>> read(InputStream in) throws IOException;
+
+    // the first bytes of a snapshot are enough to tell the formats apart
+    boolean recognizes(byte[] header);
+}
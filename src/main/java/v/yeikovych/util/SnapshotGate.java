@@ -0,0 +1,84 @@
+package v.yeikovych.util;
+
+import java.util.function.BooleanSupplier;
+
+// open transactions and threads holding a stripe keep snapshot writes out so none captures half a change, a
+// committing transaction keeps new ones from starting until its write is done so nothing lands between its commit
+// and what reaches disk
+final class SnapshotGate {
+
+    private final ThreadLocal<int[]> entered = ThreadLocal.withInitial(() -> new int[1]);
+    private int open;
+    private int holding;
+    private int waitingWriters;
+    private boolean writing;
+
+    void enter() {
+        int[] depth = entered.get();
+        if (depth[0]++ > 0) {
+            return;
+        }
+        synchronized (this) {
+            // waiting writers go first, a steady stream of transactions would otherwise keep them out for good
+            awaitUninterruptibly(() -> !writing && holding == 0 && waitingWriters == 0);
+            open++;
+        }
+    }
+
+    void exit() {
+        if (leave()) {
+            synchronized (this) {
+                open--;
+                notifyAll();
+            }
+        }
+    }
+
+    // leaves like exit, no transaction starts again until release
+    void exitHolding() {
+        leave();
+        synchronized (this) {
+            open--;
+            holding++;
+            notifyAll();
+        }
+    }
+
+    synchronized void release() {
+        holding--;
+        notifyAll();
+    }
+
+    synchronized void beginWrite() {
+        waitingWriters++;
+        try {
+            awaitUninterruptibly(() -> !writing && open == 0);
+        } finally {
+            waitingWriters--;
+        }
+        writing = true;
+    }
+
+    synchronized void endWrite() {
+        writing = false;
+        notifyAll();
+    }
+
+    private boolean leave() {
+        return --entered.get()[0] == 0;
+    }
+
+    private void awaitUninterruptibly(BooleanSupplier condition) {
+        boolean interrupted = false;
+        while (!condition.getAsBoolean()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
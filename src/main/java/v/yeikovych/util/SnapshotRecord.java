@@ -0,0 +1,182 @@
+package v.yeikovych.util;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+
+import static v.yeikovych.util.BinarySnapshotCodec.*;
+import static v.yeikovych.util.ValidationUtils.*;
+
+// read-only view of one object in a mapped snapshot, fields are decoded on access
+public final class SnapshotRecord {
+
+    private final MappedShard shard;
+    private final int id;
+    private final Class<?> type;
+    private final Map<String, Integer> slotsByName;
+    private final Slot[] slots;
+    private final int[] offsets;
+
+    SnapshotRecord(MappedShard shard, int id, Class<?> type, Map<String, Integer> slotsByName,
+                   Slot[] slots, int[] offsets) {
+        this.shard = shard;
+        this.id = id;
+        this.type = type;
+        this.slotsByName = slotsByName;
+        this.slots = slots;
+        this.offsets = offsets;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public Object get(String field) {
+        int slot = slotOf(field);
+        return decode(shard, slots[slot], offsets[slot]);
+    }
+
+    public String getString(String field) {
+        return (String) get(field, STRING);
+    }
+
+    public int getInt(String field) {
+        return (Integer) get(field, INT);
+    }
+
+    public long getLong(String field) {
+        return (Long) get(field, LONG);
+    }
+
+    public double getDouble(String field) {
+        return (Double) get(field, DOUBLE);
+    }
+
+    public boolean getBoolean(String field) {
+        return (Boolean) get(field, BOOLEAN);
+    }
+
+    public LocalDate getDate(String field) {
+        return (LocalDate) get(field, DATE);
+    }
+
+    public LocalDateTime getDateTime(String field) {
+        return (LocalDateTime) get(field, DATE_TIME);
+    }
+
+    public int[] getIntArray(String field) {
+        return (int[]) get(field, INT_ARRAY);
+    }
+
+    public long[] getLongArray(String field) {
+        return (long[]) get(field, LONG_ARRAY);
+    }
+
+    public <E extends Enum<E>> E getEnum(String field, Class<E> type) {
+        int slot = slotOf(field, ENUM);
+        int ordinal = shard.buffer().getShort(offsets[slot]);
+        return ordinal == NULL_REF ? null : type.getEnumConstants()[ordinal];
+    }
+
+    public SnapshotRecord getReference(String field) {
+        int slot = slotOf(field, REFERENCE);
+        int target = shard.buffer().getInt(offsets[slot]);
+        return target == NULL_REF ? null : shard.resolve(target);
+    }
+
+    public List<SnapshotRecord> getCollection(String field) {
+        int slot = slotOf(field, COLLECTION);
+        ByteBuffer buffer = shard.buffer();
+        int offset = offsets[slot];
+        int size = Math.max(buffer.getInt(offset), 0);
+        // elements are looked up on access, so walking a large collection stays within the cache bound
+        return new AbstractList<>() {
+            @Override
+            public SnapshotRecord get(int index) {
+                return shard.resolve(buffer.getInt(offset + Integer.BYTES * (1 + index)));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    static Object decode(MappedShard shard, Slot slot, int offset) {
+        ByteBuffer buffer = shard.buffer();
+        return switch (slot.kind()) {
+            case INT -> buffer.getInt(offset);
+            case LONG -> buffer.getLong(offset);
+            case DOUBLE -> buffer.getDouble(offset);
+            case BOOLEAN -> buffer.get(offset) != 0;
+            case STRING -> shard.string(buffer.getInt(offset));
+            case DATE -> {
+                int day = buffer.getInt(offset);
+                yield day == NULL_DAY ? null : LocalDate.ofEpochDay(day);
+            }
+            case DATE_TIME -> buffer.get(offset) == 0
+                    ? null
+                    : LocalDateTime.ofEpochSecond(buffer.getLong(offset + 1), buffer.getInt(offset + 9), ZoneOffset.UTC);
+            case ENUM -> {
+                int ordinal = buffer.getShort(offset);
+                if (ordinal == NULL_REF) {
+                    yield null;
+                }
+                // an enum field that no longer exists can only be reported by ordinal
+                yield slot.field() == null ? ordinal : slot.field().getType().getEnumConstants()[ordinal];
+            }
+            case REFERENCE -> {
+                int target = buffer.getInt(offset);
+                yield target == NULL_REF ? null : shard.resolve(target);
+            }
+            case INT_ARRAY -> {
+                int size = buffer.getInt(offset);
+                int[] array = size == NULL_REF ? null : new int[size];
+                for (int i = 0; i < size; i++) {
+                    array[i] = buffer.getInt(offset + Integer.BYTES * (1 + i));
+                }
+                yield array;
+            }
+            case LONG_ARRAY -> {
+                int size = buffer.getInt(offset);
+                long[] array = size == NULL_REF ? null : new long[size];
+                for (int i = 0; i < size; i++) {
+                    array[i] = buffer.getLong(offset + Integer.BYTES + Long.BYTES * i);
+                }
+                yield array;
+            }
+            default -> throw new IllegalArgumentException("Collections are read through getCollection");
+        };
+    }
+
+    private Object get(String field, byte kind) {
+        int slot = slotOf(field, kind);
+        return decode(shard, slots[slot], offsets[slot]);
+    }
+
+    private int slotOf(String field, byte kind) {
+        int slot = slotOf(field);
+        throwIfFalse(() -> slots[slot].kind() == kind, "Field " + field + " has a different type");
+        return slot;
+    }
+
+    private int slotOf(String field) {
+        Integer slot = slotsByName.get(field);
+        throwIfFalse(() -> slot != null, "No field " + field + " on " + type.getSimpleName());
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return type.getSimpleName() + "#" + id;
+    }
+}
@@ -0,0 +1,43 @@
+package v.yeikovych.util;
+
+import java.util.*;
+import java.util.function.Function;
+
+public class SortedIndex<K extends Comparable<? super K>, T extends Extent> extends HashIndex<K, T> {
+
+    public SortedIndex(Function<T, K> keyExtractor) {
+        super(keyExtractor, new TreeMap<>());
+    }
+
+    // a null bound leaves that side of the range open
+    public synchronized List<T> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        List<T> matches = new ArrayList<>();
+        for (Set<T> bucket : buckets(from, fromInclusive, to, toInclusive).values()) {
+            matches.addAll(bucket);
+        }
+        return matches;
+    }
+
+    public synchronized int countRange(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        int count = 0;
+        for (Set<T> bucket : buckets(from, fromInclusive, to, toInclusive).values()) {
+            count += bucket.size();
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private NavigableMap<K, Set<T>> buckets(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        NavigableMap<K, Set<T>> sorted = (NavigableMap<K, Set<T>>) buckets;
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            return Collections.emptyNavigableMap();
+        }
+        if (from != null) {
+            sorted = sorted.tailMap(from, fromInclusive);
+        }
+        if (to != null) {
+            sorted = sorted.headMap(to, toInclusive);
+        }
+        return sorted;
+    }
+}
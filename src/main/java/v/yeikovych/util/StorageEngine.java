@@ -0,0 +1,27 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// where extents live between runs, picked at startup through mas.storage.engine
+public interface StorageEngine {
+
+    // writes to an engine that is not durable go nowhere, so the journal and the flusher are skipped too
+    boolean isDurable();
+
+    boolean exists();
+
+    Map<Class<? extends Extent>, List<? extends Extent>> read() throws IOException;
+
+    // dirty == null when every extent has to be written, force puts the new files on the device before they replace
+    // the old ones
+    void write(Map<Class<? extends Extent>, List<? extends Extent>> extents,
+               Set<Class<? extends Extent>> dirty, boolean force) throws IOException;
+
+    MappedSnapshot openSnapshot(int cacheCapacity) throws IOException;
+
+    // drops whatever the engine remembers about the last graph it read or wrote
+    void forget();
+}
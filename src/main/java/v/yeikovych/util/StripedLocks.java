@@ -0,0 +1,155 @@
+package v.yeikovych.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+public final class StripedLocks {
+
+    private static final int STRIPES = 1024;
+    private static final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private static final ThreadLocal<Held> held = ThreadLocal.withInitial(Held::new);
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private StripedLocks() {
+    }
+
+    public static void run(Runnable action, Object... participants) {
+        int[] stripes = stripesOf(participants);
+        Held current = lock(stripes);
+        try {
+            action.run();
+        } finally {
+            unlock(stripes, current);
+        }
+    }
+
+    public static <T> T call(Supplier<T> action, Object... participants) {
+        int[] stripes = stripesOf(participants);
+        Held current = lock(stripes);
+        try {
+            return action.get();
+        } finally {
+            unlock(stripes, current);
+        }
+    }
+
+    // for operations whose participants depend on state that may change before the locks are taken
+    public static void runResolved(Supplier<Object[]> participants, Runnable action) {
+        callResolved(participants, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public static <T> T callResolved(Supplier<Object[]> participants, Supplier<T> action) {
+        while (true) {
+            Object[] expected = participants.get();
+            int[] stripes = stripesOf(expected);
+            Held current = lock(stripes);
+            try {
+                if (sameParticipants(expected, participants.get())) {
+                    return action.get();
+                }
+            } finally {
+                unlock(stripes, current);
+            }
+        }
+    }
+
+    // runs the action once this thread holds no stripe, right away if it holds none; snapshot writes wait until no
+    // thread holds a stripe, this one included
+    static void afterRelease(Runnable action) {
+        Held current = held.get();
+        if (current.depth == 0) {
+            action.run();
+        } else {
+            current.pending.add(action);
+        }
+    }
+
+    static boolean isHeld() {
+        return held.get().depth > 0;
+    }
+
+    private static int[] stripesOf(Object[] participants) {
+        int[] stripes = new int[participants.length];
+        int count = 0;
+        for (Object participant : participants) {
+            if (participant != null) {
+                stripes[count++] = stripeOf(participant);
+            }
+        }
+        stripes = Arrays.copyOf(stripes, count);
+        // a global acquisition order keeps overlapping lock sets from deadlocking
+        Arrays.sort(stripes);
+        return stripes;
+    }
+
+    private static int stripeOf(Object participant) {
+        int hash = System.identityHashCode(participant);
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static Held lock(int[] stripes) {
+        Held current = held.get();
+        if (current.depth == 0) {
+            // a snapshot never sees a change half applied; the gate comes before any stripe, so nobody waits for it
+            // while holding one
+            SerializationUtil.enterChange();
+        }
+        int previous = -1;
+        for (int stripe : stripes) {
+            if (stripe != previous) {
+                locks[stripe].lock();
+                previous = stripe;
+            }
+        }
+        current.depth++;
+        return current;
+    }
+
+    private static void unlock(int[] stripes, Held current) {
+        int previous = -1;
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            if (stripes[i] != previous) {
+                locks[stripes[i]].unlock();
+                previous = stripes[i];
+            }
+        }
+        if (--current.depth == 0) {
+            SerializationUtil.exitChange();
+            if (!current.pending.isEmpty()) {
+                List<Runnable> actions = List.copyOf(current.pending);
+                current.pending.clear();
+                actions.forEach(Runnable::run);
+            }
+        }
+    }
+
+    private static boolean sameParticipants(Object[] expected, Object[] actual) {
+        if (expected.length != actual.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Held {
+        private int depth;
+        // the same action asked for twice runs once
+        private final Set<Runnable> pending = new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,11 @@
+package v.yeikovych.util;
+
+import java.io.NotSerializableException;
+
+// a reference to an object no shard owns, the graph changed while the snapshot was being written
+public class TornSnapshotException extends NotSerializableException {
+
+    TornSnapshotException(Object outside) {
+        super("Object outside the snapshot: " + outside.getClass().getName());
+    }
+}
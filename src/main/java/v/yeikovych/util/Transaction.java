@@ -0,0 +1,195 @@
+package v.yeikovych.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static v.yeikovych.util.ValidationUtils.*;
+
+public final class Transaction implements AutoCloseable {
+
+    private static final ThreadLocal<Transaction> current = new ThreadLocal<>();
+
+    private final Deque<Runnable> undoLog = new ArrayDeque<>();
+    private final Set<Class<? extends Extent>> restoredExtents = new HashSet<>();
+    // held back until commit, a rollback discards them
+    private final List<ChangeEvent> changes = new ArrayList<>();
+    // what the journal needs to redo the commit, entities created inside it are journaled whole
+    private final Set<Extent> inserted = new LinkedHashSet<>();
+    private final List<Redo> redoLog = new ArrayList<>();
+    private boolean snapshotOnly;
+    private boolean dirty;
+    private boolean rollingBack;
+    private boolean finished;
+
+    private Transaction() {
+    }
+
+    public static Transaction begin() {
+        throwIfFalse(() -> current.get() == null, "A transaction is already open on this thread");
+
+        // snapshots wait for open transactions, so no write ever captures half of one
+        SerializationUtil.enterTransaction();
+        Transaction transaction = new Transaction();
+        current.set(transaction);
+        return transaction;
+    }
+
+    public static boolean isActive() {
+        return current.get() != null;
+    }
+
+    static Transaction current() {
+        return current.get();
+    }
+
+    // undo actions restore local state only, the other side of an association logs its own
+    public static void onRollback(Object owner, Runnable undo) {
+        Transaction transaction = current.get();
+        if (transaction != null && !transaction.rollingBack) {
+            transaction.undoLog.push(() -> StripedLocks.run(undo, owner));
+        }
+    }
+
+    private record Redo(ChangeEvent.Kind kind, Extent entity, String field, Object value) {
+    }
+
+    void fieldChanged(Class<? extends Extent> extentClass, Extent entity, String field, Object oldValue, Object value) {
+        dirty = true;
+        if (rollingBack) {
+            return;
+        }
+        redoLog.add(new Redo(ChangeEvent.Kind.UPDATED, entity, field, value));
+        undoLog.push(() -> StripedLocks.run(() -> {
+            try {
+                ExtentJournal.apply(entity, field, oldValue);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (extentClass != null) {
+                restoredExtents.add(extentClass);
+            }
+        }, entity));
+    }
+
+    void inserted(Extent entity) {
+        dirty = true;
+        if (!rollingBack) {
+            inserted.add(entity);
+        }
+    }
+
+    void linked(Extent owner, String field, Extent target, boolean linked) {
+        dirty = true;
+        if (!rollingBack) {
+            redoLog.add(new Redo(linked ? ChangeEvent.Kind.LINKED : ChangeEvent.Kind.UNLINKED, owner, field, target));
+        }
+    }
+
+    // a change the journal has no record for, only a snapshot carries it
+    void markDirty() {
+        dirty = true;
+        snapshotOnly = true;
+    }
+
+    // null when the commit needs a snapshot after all
+    ExtentJournal.Batch journalBatch() {
+        if (snapshotOnly) {
+            return null;
+        }
+        ExtentJournal.Batch batch = new ExtentJournal.Batch();
+        try {
+            for (Extent entity : inserted) {
+                batch.create(entity);
+            }
+            for (Extent entity : inserted) {
+                batch.state(entity);
+            }
+            for (Redo redo : redoLog) {
+                if (inserted.contains(redo.entity())) {
+                    // already journaled as it is now
+                    continue;
+                }
+                if (redo.kind() == ChangeEvent.Kind.UPDATED) {
+                    batch.field(redo.entity().getId(), redo.field(), redo.value());
+                } else {
+                    batch.link(redo.entity(), redo.field(), (Extent) redo.value(), redo.kind() == ChangeEvent.Kind.LINKED);
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return batch;
+    }
+
+    void changed(ChangeEvent event) {
+        if (!rollingBack) {
+            changes.add(event);
+        }
+    }
+
+    public void commit() {
+        // the commit writes before the gate opens again, and that write waits for every stripe holder
+        throwIfFalse(() -> !StripedLocks.isHeld(), "Cannot commit while holding a lock");
+
+        finish();
+        SerializationUtil.commitTransaction(dirty, this::journalBatch);
+        if (!changes.isEmpty()) {
+            ChangeEvents.deliver(changes);
+        }
+    }
+
+    public void rollback() {
+        throwIfFalse(() -> !finished, "Transaction is already finished");
+
+        rollingBack = true;
+        RuntimeException failure = null;
+        try {
+            while (!undoLog.isEmpty()) {
+                try {
+                    undoLog.pop().run();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            // field restores bypass the setters, so indexes over them are rebuilt once at the end
+            restoredExtents.forEach(SerializationUtil::rebuildIndexes);
+        } finally {
+            finish();
+            SerializationUtil.exitTransaction();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    @Override
+    public void close() {
+        if (!finished) {
+            rollback();
+        }
+    }
+
+    private void finish() {
+        throwIfFalse(() -> !finished, "Transaction is already finished");
+
+        finished = true;
+        undoLog.clear();
+        current.remove();
+    }
+}
@@ -0,0 +1,78 @@
+package v.yeikovych.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+public class UniqueIndex<K, T extends Extent> implements ExtentIndex<T> {
+
+    private final Function<T, K> keyExtractor;
+    private final String duplicateMessage;
+    private final Map<K, T> entries = new ConcurrentHashMap<>();
+
+    public UniqueIndex(Function<T, K> keyExtractor, String duplicateMessage) {
+        this.keyExtractor = keyExtractor;
+        this.duplicateMessage = duplicateMessage;
+    }
+
+    public T find(K key) {
+        return key == null ? null : entries.get(key);
+    }
+
+    public boolean contains(K key) {
+        return find(key) != null;
+    }
+
+    public void checkAvailable(K key, T owner) {
+        T existing = find(key);
+        if (existing != null && existing != owner) {
+            throw new IllegalArgumentException(duplicateMessage + key);
+        }
+    }
+
+    @Override
+    public void insert(T owner) {
+        claim(keyExtractor.apply(owner), owner);
+    }
+
+    public void update(K oldKey, K newKey, T owner) {
+        if (oldKey == null || entries.get(oldKey) != owner) {
+            // owner is not indexed yet, insert() claims the key atomically later
+            checkAvailable(newKey, owner);
+            return;
+        }
+
+        claim(newKey, owner);
+        if (!oldKey.equals(newKey)) {
+            entries.remove(oldKey, owner);
+        }
+    }
+
+    @Override
+    public void remove(T owner) {
+        K key = keyExtractor.apply(owner);
+        if (key != null) {
+            entries.remove(key, owner);
+        }
+    }
+
+    @Override
+    public void rebuild(Collection<? extends T> extent) {
+        entries.clear();
+        for (T entity : extent) {
+            insert(entity);
+        }
+    }
+
+    private void claim(K key, T owner) {
+        T existing = entries.putIfAbsent(key, owner);
+        if (existing != null && existing != owner) {
+            throw new IllegalArgumentException(duplicateMessage + key);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
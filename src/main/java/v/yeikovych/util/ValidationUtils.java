@@ -6,8 +6,6 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.BooleanSupplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class ValidationUtils {
 
@@ -92,19 +90,52 @@ public class ValidationUtils {
     }
 
     public static boolean isValidEmail(String email) {
-        if (email == null || email.isBlank() || email.length() > 320) {
+        if (email == null || email.isEmpty() || email.length() > 320) {
             return false;
         }
 
-        String emailRegex = "^[A-Za-z0-9._%+-]+@[A-Za-z0-9.-]+\\.[A-Za-z]{2,}$";
-        Pattern pattern = Pattern.compile(emailRegex);
-        Matcher matcher = pattern.matcher(email);
+        int at = -1;
+        int lastDot = -1;
+        for (int i = 0; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c == '@') {
+                if (at >= 0) return false;
+                at = i;
+            } else if (at < 0) {
+                if (!isEmailLocalChar(c)) return false;
+            } else if (c == '.') {
+                lastDot = i;
+            } else if (!isAsciiLetterOrDigit(c) && c != '-') {
+                return false;
+            }
+        }
 
-        return matcher.matches();
+        if (at < 1 || lastDot <= at + 1 || email.length() - lastDot - 1 < 2) {
+            return false;
+        }
+        for (int i = lastDot + 1; i < email.length(); i++) {
+            if (!isAsciiLetter(email.charAt(i))) return false;
+        }
+        return true;
     }
 
     public static boolean isValidPhoneNumber(String phoneNumber) {
-        return phoneNumber != null && phoneNumber.length() >= 10 && phoneNumber.length() <= 15;
+        if (phoneNumber == null || phoneNumber.length() < 10 || phoneNumber.length() > 15) {
+            return false;
+        }
+
+        int digits = 0;
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (isAsciiDigit(c)) {
+                digits++;
+            } else if (c == '+') {
+                if (i != 0) return false;
+            } else if (c != ' ' && c != '-' && c != '(' && c != ')') {
+                return false;
+            }
+        }
+        return digits >= 7;
     }
 
     public static boolean anyNull(List<?> list) {
@@ -134,8 +165,94 @@ public class ValidationUtils {
     }
 
     public static boolean isValidIsbn(String isbn) {
-        String isbnPattern = "^(?:ISBN(?:-1[03])?:? )?(?=[0-9X]{10}$|(?=(?:\\d+[- ]){3})[- 0-9X]{13}$|97[89]\\d{10}$|" +
-                "(?=(?:\\d+[- ]){4})[- 0-9]{17}$)(?:97[89][- ]?)?\\d{1,5}[- ]?\\d+[- ]?\\d+[- ]?[0-9X]$";
-        return isbn.matches(isbnPattern);
+        if (isbn == null) {
+            return false;
+        }
+
+        int start = skipIsbnPrefix(isbn);
+        int length = isbn.length();
+        if (start >= length) {
+            return false;
+        }
+
+        int digits = 0;
+        int separators = 0;
+        int sum10 = 0;
+        int sum13 = 0;
+        boolean lastWasSeparator = true;
+        boolean checkIsX = false;
+        for (int i = start; i < length; i++) {
+            char c = isbn.charAt(i);
+            if (c == '-' || c == ' ') {
+                if (lastWasSeparator) return false;
+                separators++;
+                lastWasSeparator = true;
+                continue;
+            }
+
+            int value;
+            if (isAsciiDigit(c)) {
+                value = c - '0';
+            } else if (c == 'X' && i == length - 1) {
+                value = 10;
+                checkIsX = true;
+            } else {
+                return false;
+            }
+
+            if (digits == 13) return false;
+            sum10 += value * (10 - digits);
+            sum13 += value * ((digits & 1) == 0 ? 1 : 3);
+            digits++;
+            lastWasSeparator = false;
+        }
+
+        if (lastWasSeparator) {
+            return false;
+        }
+        if (digits == 10) {
+            return (separators == 0 || separators == 3) && sum10 % 11 == 0;
+        }
+        if (digits == 13) {
+            return !checkIsX && (separators == 0 || separators == 4)
+                    && isbn.charAt(start) == '9' && isbn.charAt(start + 1) == '7'
+                    && (isbn.charAt(start + 2) == '8' || isbn.charAt(start + 2) == '9')
+                    && sum13 % 10 == 0;
+        }
+        return false;
+    }
+
+    private static int skipIsbnPrefix(String isbn) {
+        if (!isbn.startsWith("ISBN")) {
+            return 0;
+        }
+
+        int i = 4;
+        if (isbn.startsWith("-10", i) || isbn.startsWith("-13", i)) {
+            i += 3;
+        }
+        if (i < isbn.length() && isbn.charAt(i) == ':') {
+            i++;
+        }
+        if (i < isbn.length() && isbn.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isEmailLocalChar(char c) {
+        return isAsciiLetterOrDigit(c) || c == '.' || c == '_' || c == '%' || c == '+' || c == '-';
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return isAsciiLetter(c) || isAsciiDigit(c);
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 }
@@ -1,48 +1,89 @@
 package v.yeikovych.xor;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import v.yeikovych.dynamic.Member;
 import v.yeikovych.dynamic.MembershipStatus;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.EntityIds;
+import v.yeikovych.util.Extent;
+import v.yeikovych.util.ExtentIndex;
+import v.yeikovych.util.Restorable;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
-public class Club {
+public class Club implements Extent, Restorable {
+    private static List<Club> extent = Collections.synchronizedList(new ArrayList<>());
+    private static final ExtentIndex<Club> idIndex = EntityIds.indexFor(Club.class);
+
+    static {
+        SerializationUtil.registerExtent(extent, Club.class);
+        SerializationUtil.registerIndex(Club.class, idIndex);
+    }
+
+    // unique
+    private final long id = EntityIds.next();
+
     private String clubName;
     private String description;
     private MembershipStatus requiredStatus;
 
     // XOR
-    private Set<Member> members = new HashSet<>();
+    private Set<Member> members = ConcurrentHashMap.newKeySet();
+
+    // binary snapshots restore fields directly
+    private Club() {
+    }
 
     public Club(String clubName, String description, MembershipStatus requiredStatus) {
         setClubName(clubName);
         setDescription(description);
         setRequiredStatus(requiredStatus);
+        idIndex.insert(this);
+        extent.add(this);
+        Transaction.onRollback(this, this::removeFromExtent);
+        SerializationUtil.writeExtent(Club.class);
     }
 
     public void addMember(Member member) {
         throwIfNull(member, "Member cannot be null");
 
-        if (requiredStatus != null) {
-            throwIfFalse(() -> member.getStatus().compareTo(requiredStatus) >= 0,
-                    "This club requires " + requiredStatus + " status or higher");
-        }
-
-        if (!this.members.contains(member)) {
-            this.members.add(member);
-            member.setClub(this);
-        }
+        StripedLocks.runResolved(() -> new Object[]{this, member, member.getClub()}, () -> {
+            if (requiredStatus != null) {
+                throwIfFalse(() -> member.getStatus().compareTo(requiredStatus) >= 0,
+                        "This club requires " + requiredStatus + " status or higher");
+            }
+
+            if (!this.members.contains(member)) {
+                this.members.add(member);
+                Transaction.onRollback(this, () -> this.members.remove(member));
+                member.setClub(this);
+                ChangeEvents.linked(this, "members", member);
+                SerializationUtil.writeExtent(Club.class);
+            }
+        });
     }
 
     public void removeMember(Member member) {
         throwIfNull(member, "Member cannot be null");
 
-        if (this.members.remove(member)) {
-            member.setClub(null);
-        }
+        StripedLocks.run(() -> {
+            if (this.members.remove(member)) {
+                Transaction.onRollback(this, () -> this.members.add(member));
+                member.setClub(null);
+                ChangeEvents.unlinked(this, "members", member);
+                SerializationUtil.writeExtent(Club.class);
+            }
+        }, this, member);
     }
 
     public String getClubName() {
@@ -51,7 +92,9 @@ public class Club {
 
     public void setClubName(String clubName) {
         throwIfFalse(() -> isValidString(clubName), "Club name cannot be null or empty");
+        String previous = this.clubName;
         this.clubName = clubName;
+        SerializationUtil.recordChange(this, "clubName", previous, clubName);
     }
 
     public String getDescription() {
@@ -60,7 +103,9 @@ public class Club {
 
     public void setDescription(String description) {
         throwIfFalse(() -> isValidString(description), "Description cannot be null or empty");
+        String previous = this.description;
         this.description = description;
+        SerializationUtil.recordChange(this, "description", previous, description);
     }
 
     public MembershipStatus getRequiredStatus() {
@@ -68,10 +113,59 @@ public class Club {
     }
 
     public void setRequiredStatus(MembershipStatus requiredStatus) {
+        MembershipStatus previous = this.requiredStatus;
         this.requiredStatus = requiredStatus;
+        SerializationUtil.recordChange(this, "requiredStatus", previous, requiredStatus);
     }
 
     public Set<Member> getMembers() {
         return Collections.unmodifiableSet(members);
     }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public static List<Club> getExtent() {
+        synchronized (extent) {
+            return List.copyOf(extent);
+        }
+    }
+
+    public static Club findById(long id) {
+        return EntityIds.find(id, Club.class);
+    }
+
+    public void removeFromExtent() {
+        if (extent.removeIf(entity -> entity == this)) {
+            idIndex.remove(this);
+            Transaction.onRollback(this, () -> {
+                idIndex.insert(this);
+                extent.add(this);
+            });
+            SerializationUtil.writeExtent(Club.class);
+        }
+    }
+
+    @Override
+    public void afterRestore() {
+        EntityIds.restored(id);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        afterRestore();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        return o instanceof Club club && id == club.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
 }
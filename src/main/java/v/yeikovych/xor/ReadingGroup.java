@@ -1,46 +1,100 @@
 package v.yeikovych.xor;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import v.yeikovych.bag.BookCategory;
 import v.yeikovych.dynamic.Member;
+import v.yeikovych.util.CapacityGate;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.EntityIds;
+import v.yeikovych.util.Extent;
+import v.yeikovych.util.ExtentIndex;
+import v.yeikovych.util.Restorable;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.StripedLocks;
+import v.yeikovych.util.Transaction;
 
 import static v.yeikovych.util.ValidationUtils.*;
 
-public class ReadingGroup {
+public class ReadingGroup implements Extent, Restorable {
+    private static List<ReadingGroup> extent = Collections.synchronizedList(new ArrayList<>());
+    private static final ExtentIndex<ReadingGroup> idIndex = EntityIds.indexFor(ReadingGroup.class);
+
+    static {
+        SerializationUtil.registerExtent(extent, ReadingGroup.class);
+        SerializationUtil.registerIndex(ReadingGroup.class, idIndex);
+    }
+
+    // unique
+    private final long id = EntityIds.next();
+
     private String groupName;
     private BookCategory focusCategory;
     private int maxCapacity;
 
     // XOR
-    private Set<Member> participants = new HashSet<>();
+    private Set<Member> participants = ConcurrentHashMap.newKeySet();
+    // derived from maxCapacity and participants
+    private transient CapacityGate seats = new CapacityGate();
+
+    // binary snapshots restore fields directly
+    private ReadingGroup() {
+    }
 
     public ReadingGroup(String groupName, BookCategory focusCategory, int maxCapacity) {
         setGroupName(groupName);
         setFocusCategory(focusCategory);
         setMaxCapacity(maxCapacity);
+        idIndex.insert(this);
+        extent.add(this);
+        Transaction.onRollback(this, this::removeFromExtent);
+        SerializationUtil.writeExtent(ReadingGroup.class);
     }
 
     public void addParticipant(Member member) {
         throwIfNull(member, "Member cannot be null");
 
-        throwIfFalse(() -> participants.size() < maxCapacity,
-                "Reading group has reached maximum capacity");
-
-        if (!this.participants.contains(member)) {
-            this.participants.add(member);
-            member.setReadingGroup(this);
-        }
+        // only the member is locked, concurrent joins for one group meet at the seat counter
+        StripedLocks.run(() -> {
+            if (!this.participants.contains(member)) {
+                throwIfFalse(() -> member.getClub() == null,
+                        "Member cannot be in both a Club and a Reading Group");
+                throwIfFalse(seats::tryReserve, "Reading group has reached maximum capacity");
+                this.participants.add(member);
+                Transaction.onRollback(this, () -> {
+                    this.participants.remove(member);
+                    seats.release();
+                });
+                member.setReadingGroup(this);
+                ChangeEvents.linked(this, "participants", member);
+                SerializationUtil.writeExtent(ReadingGroup.class);
+            }
+        }, member);
     }
 
     public void removeParticipant(Member member) {
         throwIfNull(member, "Member cannot be null");
 
-        if (this.participants.remove(member)) {
-            member.setReadingGroup(null);
-        }
+        StripedLocks.run(() -> {
+            if (this.participants.remove(member)) {
+                seats.release();
+                Transaction.onRollback(this, () -> {
+                    this.participants.add(member);
+                    seats.occupy();
+                });
+                if (member.getReadingGroup() == this) {
+                    member.setReadingGroup(null);
+                }
+                ChangeEvents.unlinked(this, "participants", member);
+                SerializationUtil.writeExtent(ReadingGroup.class);
+            }
+        }, member);
     }
 
     public String getGroupName() {
@@ -50,7 +104,9 @@ public class ReadingGroup {
     public void setGroupName(String groupName) {
         throwIfFalse(() -> isValidString(groupName),
                 "Group name cannot be null or empty");
+        String previous = this.groupName;
         this.groupName = groupName;
+        SerializationUtil.recordChange(this, "groupName", previous, groupName);
     }
 
     public BookCategory getFocusCategory() {
@@ -59,7 +115,9 @@ public class ReadingGroup {
 
     public void setFocusCategory(BookCategory focusCategory) {
         throwIfNull(focusCategory, "Focus category cannot be null");
+        BookCategory previous = this.focusCategory;
         this.focusCategory = focusCategory;
+        SerializationUtil.recordChange(this, "focusCategory", previous, focusCategory);
     }
 
     public int getMaxCapacity() {
@@ -70,15 +128,66 @@ public class ReadingGroup {
         throwIfFalse(() -> isPositive(maxCapacity),
                 "Maximum capacity must be positive");
 
-        if (this.participants != null) {
-            throwIfFalse(() -> maxCapacity >= this.participants.size(),
+        StripedLocks.run(() -> {
+            throwIfFalse(() -> seats.tryResize(maxCapacity),
                     "Cannot reduce maximum capacity below current participant count");
-        }
 
-        this.maxCapacity = maxCapacity;
+            int previous = this.maxCapacity;
+            this.maxCapacity = maxCapacity;
+            Transaction.onRollback(this, () -> seats.resize(previous));
+            SerializationUtil.recordChange(this, "maxCapacity", previous, maxCapacity);
+        }, this);
     }
 
     public Set<Member> getParticipants() {
         return Collections.unmodifiableSet(participants);
     }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public static List<ReadingGroup> getExtent() {
+        synchronized (extent) {
+            return List.copyOf(extent);
+        }
+    }
+
+    public static ReadingGroup findById(long id) {
+        return EntityIds.find(id, ReadingGroup.class);
+    }
+
+    public void removeFromExtent() {
+        if (extent.removeIf(entity -> entity == this)) {
+            idIndex.remove(this);
+            Transaction.onRollback(this, () -> {
+                idIndex.insert(this);
+                extent.add(this);
+            });
+            SerializationUtil.writeExtent(ReadingGroup.class);
+        }
+    }
+
+    @Override
+    public void afterRestore() {
+        EntityIds.restored(id);
+        seats = new CapacityGate(maxCapacity, participants.size());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        afterRestore();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        return o instanceof ReadingGroup group && id == group.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
 }
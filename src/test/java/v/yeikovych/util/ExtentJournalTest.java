@@ -0,0 +1,98 @@
+package v.yeikovych.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import v.yeikovych.bag.Book;
+import v.yeikovych.bag.BookCategory;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.dynamic.MembershipStatus;
+import v.yeikovych.ordered.Loan;
+import v.yeikovych.ordered.OverdueSweeper;
+import v.yeikovych.staticc.Person;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExtentJournalTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    private Book book;
+    private Member member;
+
+    @BeforeEach
+    void useJournal() {
+        SerializationUtil.close();
+        SerializationUtil.useStorageEngine("mapped");
+        SerializationUtil.useDurability(Durability.SYNC);
+        SerializationUtil.clearExtents();
+        book = new Book("9780306406157", "Journaled", "Author", 2001, BookCategory.FICTION, 200);
+        member = new Member("Reader", "Journal", LocalDate.of(1990, 1, 1), "reader@journal.example.com",
+                "1234567890", MembershipStatus.VIP);
+        SerializationUtil.enableJournal(10_000);
+    }
+
+    @AfterEach
+    void reset() {
+        SerializationUtil.close();
+        SerializationUtil.clearExtents();
+        SerializationUtil.useDurability(Durability.ASYNC);
+    }
+
+    @Test
+    void checkoutsAreJournaledAndReplayed() throws IOException {
+        Loan open;
+        Loan returned;
+        try (Transaction transaction = Transaction.begin()) {
+            open = new Loan(member, book, TODAY, TODAY.plusDays(14));
+            returned = new Loan(member, book, TODAY.minusDays(30), TODAY.minusDays(16));
+            returned.returnBook(TODAY.minusDays(10));
+            member.decrementBorrowedItems();
+            transaction.commit();
+        }
+        // the commit went to the journal, the shards still hold what was there before
+        assertEquals(0, storedLoans());
+
+        SerializationUtil.clearExtents();
+        SerializationUtil.readExtent();
+
+        Member restoredMember = (Member) Person.findById(member.getId());
+        Book restoredBook = Book.findById(book.getId());
+        Loan restoredOpen = Loan.findById(open.getId());
+        Loan restoredReturned = Loan.findById(returned.getId());
+        assertSame(restoredMember, restoredOpen.getMember());
+        assertSame(restoredBook, restoredReturned.getBook());
+        assertEquals(List.of(restoredOpen, restoredReturned), List.copyOf(restoredBook.getLoanHistory()));
+        assertTrue(restoredMember.hasLoan(restoredOpen));
+        assertTrue(restoredMember.hasLoan(restoredReturned));
+        assertEquals(1, restoredMember.getBorrowedItemsCount());
+        assertTrue(restoredReturned.isReturned());
+        assertEquals(returned.getLateFee(), restoredReturned.getLateFee());
+        assertEquals(1, OverdueSweeper.openLoanCount());
+    }
+
+    @Test
+    void rolledBackCheckoutsLeaveNoRecord() throws IOException {
+        try (Transaction transaction = Transaction.begin()) {
+            new Loan(member, book, TODAY, TODAY.plusDays(14));
+        }
+
+        SerializationUtil.clearExtents();
+        SerializationUtil.readExtent();
+
+        assertEquals(List.of(), Loan.getExtent());
+        assertEquals(List.of(), Book.findById(book.getId()).getLoanHistory());
+        assertEquals(0, ((Member) Person.findById(member.getId())).getBorrowedItemsCount());
+        assertEquals(0, storedLoans());
+    }
+
+    private static int storedLoans() throws IOException {
+        try (MappedSnapshot snapshot = SerializationUtil.openSnapshot(16)) {
+            return snapshot.count(Loan.class);
+        }
+    }
+}
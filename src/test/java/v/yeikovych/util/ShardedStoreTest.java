@@ -0,0 +1,125 @@
+package v.yeikovych.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import v.yeikovych.bag.Book;
+import v.yeikovych.bag.BookCategory;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.dynamic.MembershipStatus;
+import v.yeikovych.ordered.Loan;
+import v.yeikovych.ordered.OverdueSweeper;
+import v.yeikovych.staticc.Person;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedStoreTest {
+
+    private static final LocalDate TODAY = LocalDate.now();
+
+    @BeforeEach
+    void useShards() {
+        SerializationUtil.close();
+        SerializationUtil.useStorageEngine("mapped");
+        SerializationUtil.useDurability(Durability.NONE);
+        SerializationUtil.clearExtents();
+    }
+
+    @AfterEach
+    void reset() {
+        SerializationUtil.clearExtents();
+        SerializationUtil.useDurability(Durability.ASYNC);
+    }
+
+    @Test
+    void partialWritesDropObjectsThatLeftTheGraph() throws IOException {
+        Book kept = new Book("9780306406157", "Kept", "Author", 2001, BookCategory.FICTION, 200);
+        Book removed = new Book("9780140449136", "Removed", "Author", 2002, BookCategory.FICTION, 300);
+        Member borrower = member("borrower@shards.example.com");
+        Member leaving = member("leaving@shards.example.com");
+
+        Loan returned = new Loan(borrower, kept, TODAY.minusDays(30), TODAY.minusDays(16));
+        returned.returnBook(TODAY.minusDays(20));
+        Loan open = new Loan(leaving, removed, TODAY, TODAY.plusDays(14));
+        Loan stays = new Loan(borrower, kept, TODAY, TODAY.plusDays(14));
+        // every shard is written once, whatever follows only rewrites the shards it touches
+        SerializationUtil.writeExtent();
+
+        assertEquals(1, kept.compactLoanHistory(TODAY.minusDays(10)));
+        open.removeFromExtent();
+        leaving.removeFromExtent();
+        removed.removeFromExtent();
+
+        SerializationUtil.clearExtents();
+        SerializationUtil.readExtent();
+
+        assertEquals(List.of(stays.getId()), idsOf(Loan.getExtent()));
+        assertEquals(List.of(kept.getId()), idsOf(Book.getExtent()));
+        assertEquals(List.of(borrower.getId()), idsOf(Person.getExtent()));
+        assertEquals(1, OverdueSweeper.openLoanCount());
+
+        assertEquals(List.of(stays.getId()), idsOf(storedObjects(Loan.class)));
+        assertEquals(List.of(kept.getId()), idsOf(storedObjects(Book.class)));
+        assertEquals(List.of(borrower.getId()), idsOf(storedObjects(Person.class)));
+    }
+
+    @Test
+    void objectsStillReferencedElsewhereKeepTheirIds() throws IOException {
+        Book book = new Book("9780306406157", "Kept", "Author", 2001, BookCategory.FICTION, 200);
+        Member borrower = member("borrower@shards.example.com");
+        Loan first = new Loan(borrower, book, TODAY, TODAY.plusDays(14));
+        Loan second = new Loan(borrower, book, TODAY, TODAY.plusDays(14));
+        SerializationUtil.writeExtent();
+
+        // the first loan leaves its extent while the member and the book still hold it
+        first.removeFromExtent();
+        second.returnBook(TODAY);
+
+        SerializationUtil.clearExtents();
+        SerializationUtil.readExtent();
+
+        Member restored = (Member) Person.findById(borrower.getId());
+        assertEquals(List.of(second.getId()), idsOf(Loan.getExtent()));
+        assertEquals(List.of(first.getId(), second.getId()), idsOf(restored.getLoans()));
+        assertEquals(List.of(first.getId(), second.getId()), idsOf(storedObjects(Loan.class)));
+        assertSame(restored, restored.getLoans().first().getMember());
+        assertEquals(1, OverdueSweeper.openLoanCount());
+    }
+
+    private static Member member(String email) {
+        return new Member("Reader", "Shards", LocalDate.of(1990, 1, 1), email, "1234567890", MembershipStatus.VIP);
+    }
+
+    private static List<Long> idsOf(Collection<?> entities) {
+        List<Long> ids = new ArrayList<>();
+        for (Object entity : entities) {
+            ids.add(((Extent) entity).getId());
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    // every object of the extent's class written to its shard, reachable from the roots or not
+    private static List<Object> storedObjects(Class<? extends Extent> extentClass) throws IOException {
+        Path file = new ShardedStore(SerializationUtil.getDirectory(), new BinarySnapshotCodec()).files()
+                .get(extentClass.getName());
+        try (InputStream in = Files.newInputStream(file)) {
+            List<Object> stored = new ArrayList<>();
+            for (Object object : new BinarySnapshotCodec().readShard(in).objects()) {
+                if (extentClass.isInstance(object)) {
+                    stored.add(object);
+                }
+            }
+            return stored;
+        }
+    }
+}
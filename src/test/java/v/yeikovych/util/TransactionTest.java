@@ -0,0 +1,66 @@
+package v.yeikovych.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import v.yeikovych.bag.Book;
+import v.yeikovych.bag.BookCategory;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionTest {
+
+    @BeforeEach
+    void useSyncShards() {
+        SerializationUtil.close();
+        SerializationUtil.useStorageEngine("mapped");
+        SerializationUtil.useDurability(Durability.SYNC);
+        SerializationUtil.clearExtents();
+        SerializationUtil.writeExtent();
+    }
+
+    @AfterEach
+    void reset() {
+        SerializationUtil.clearExtents();
+        SerializationUtil.useDurability(Durability.ASYNC);
+    }
+
+    @Test
+    void commitUnderAStripeIsRejected() throws IOException {
+        try (Transaction transaction = Transaction.begin()) {
+            Book book = new Book("9780306406157", "Committed", "Author", 2001, BookCategory.FICTION, 200);
+
+            StripedLocks.run(() -> assertThrows(ValidationException.class, transaction::commit), book);
+            assertFalse(transaction.isFinished());
+            assertEquals(0, storedBooks());
+
+            transaction.commit();
+        }
+        // a SYNC commit returns once its write is on disk
+        assertEquals(1, storedBooks());
+    }
+
+    @Test
+    void commitIsWrittenInsideADeferredScope() throws IOException {
+        int stored = SerializationUtil.deferWrites(() -> {
+            try (Transaction transaction = Transaction.begin()) {
+                new Book("9780306406157", "Committed", "Author", 2001, BookCategory.FICTION, 200);
+                transaction.commit();
+            }
+            try {
+                return storedBooks();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        assertEquals(1, stored);
+    }
+
+    private static int storedBooks() throws IOException {
+        try (MappedSnapshot snapshot = SerializationUtil.openSnapshot(16)) {
+            return snapshot.count(Book.class);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package v.yeikovych.xor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import v.yeikovych.bag.BookCategory;
+import v.yeikovych.dynamic.Member;
+import v.yeikovych.dynamic.MembershipStatus;
+import v.yeikovych.util.ChangeEvent;
+import v.yeikovych.util.ChangeEvents;
+import v.yeikovych.util.ChangeSubscription;
+import v.yeikovych.util.Durability;
+import v.yeikovych.util.SerializationUtil;
+import v.yeikovych.util.ValidationException;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadingGroupTest {
+
+    private static final int SEATS = 3;
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 5_000;
+
+    @BeforeEach
+    void useMemory() {
+        SerializationUtil.close();
+        SerializationUtil.useStorageEngine("memory");
+        SerializationUtil.useDurability(Durability.NONE);
+        SerializationUtil.clearExtents();
+    }
+
+    @AfterEach
+    void reset() {
+        SerializationUtil.clearExtents();
+        SerializationUtil.useStorageEngine("mapped");
+        SerializationUtil.useDurability(Durability.ASYNC);
+    }
+
+    @Test
+    void movingBetweenGroupsReportsTheGroupLeft() {
+        ReadingGroup from = new ReadingGroup("Early readers", BookCategory.FICTION, SEATS);
+        ReadingGroup to = new ReadingGroup("Late readers", BookCategory.FICTION, SEATS);
+        Member member = member(0);
+        member.setReadingGroup(from);
+
+        List<ChangeEvent> moves = new ArrayList<>();
+        try (ChangeSubscription ignored = ChangeEvents.subscribe(event -> {
+            if ("readingGroup".equals(event.field())) {
+                moves.add(event);
+            }
+        })) {
+            member.setReadingGroup(to);
+        }
+
+        assertEquals(1, moves.size());
+        assertEquals(from.getId(), moves.get(0).oldValue());
+        assertEquals(to.getId(), moves.get(0).newValue());
+        assertSame(to, member.getReadingGroup());
+        assertEquals(Set.of(), from.getParticipants());
+        assertEquals(Set.of(member), to.getParticipants());
+    }
+
+    // threads share the members, so one member is moved by several of them at once
+    @Test
+    void concurrentMovesKeepMembersInOnePlaceAndGroupsWithinCapacity() throws Exception {
+        ReadingGroup[] groups = {
+                new ReadingGroup("Early readers", BookCategory.FICTION, SEATS),
+                new ReadingGroup("Late readers", BookCategory.FICTION, SEATS)
+        };
+        Club club = new Club("Night owls", "Reads after dark", null);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            members.add(member(i));
+        }
+
+        List<String> violations = new CopyOnWriteArrayList<>();
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            Future<?> observer = pool.submit(() -> {
+                while (running.get()) {
+                    for (ReadingGroup group : groups) {
+                        if (group.getParticipants().size() > SEATS) {
+                            violations.add(group.getGroupName() + " went over capacity");
+                        }
+                    }
+                }
+            });
+            List<Future<?>> movers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                movers.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        Member member = members.get(random.nextInt(members.size()));
+                        ReadingGroup group = groups[random.nextInt(groups.length)];
+                        try {
+                            switch (random.nextInt(5)) {
+                                case 0, 1 -> member.setReadingGroup(group);
+                                case 2 -> group.removeParticipant(member);
+                                case 3 -> member.setClub(club);
+                                default -> {
+                                    member.setReadingGroup(null);
+                                    member.setClub(null);
+                                }
+                            }
+                        } catch (ValidationException e) {
+                            // a full group or the other side of the xor, nothing changed
+                        }
+                        if (member.getClub() != null && member.getReadingGroup() != null) {
+                            violations.add("Member in both a club and a reading group");
+                        }
+                    }
+                }));
+            }
+            for (Future<?> mover : movers) {
+                mover.get();
+            }
+            running.set(false);
+            observer.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(List.of(), violations);
+
+        for (ReadingGroup group : groups) {
+            Set<Member> seated = new HashSet<>();
+            for (Member member : members) {
+                assertFalse(member.getClub() != null && member.getReadingGroup() != null);
+                if (member.getReadingGroup() == group) {
+                    seated.add(member);
+                }
+            }
+            assertEquals(seated, group.getParticipants());
+            assertTrue(seated.size() <= SEATS);
+        }
+
+        // a leaked seat shows up as a group that can no longer be filled
+        for (Member member : members) {
+            member.setReadingGroup(null);
+            member.setClub(null);
+        }
+        for (ReadingGroup group : groups) {
+            for (int i = 0; i < SEATS; i++) {
+                members.get(i + (group == groups[0] ? 0 : SEATS)).setReadingGroup(group);
+            }
+            assertEquals(SEATS, group.getParticipants().size());
+        }
+    }
+
+    private static Member member(int number) {
+        return new Member("Reader", "Group", LocalDate.of(1990, 1, 1), "reader" + number + "@groups.example.com",
+                "1234567890", MembershipStatus.VIP);
+    }
+}